@@ -0,0 +1,79 @@
+package com.synconset;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The base64 round trip over the bridge, for payloads the size of a JPEG
+ * of 1 to 12 megapixels (about 0.35 bytes per pixel).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class Base64Benchmark {
+    @Param({"1", "4", "12"})
+    int megapixels;
+
+    byte[] payload;
+    String encoded;
+    byte[] readBuffer = new byte[16 * 1024];
+
+    @Setup
+    public void setUp() {
+        payload = new byte[(int) (megapixels * 1000000L * 35 / 100)];
+        new Random(42).nextBytes(payload);
+        PooledByteArrayOutputStream out = PooledByteArrayOutputStream.obtain(payload.length);
+        out.write(payload, 0, payload.length);
+        encoded = out.toBase64();
+        out.release();
+    }
+
+    @Benchmark
+    public String encode() {
+        PooledByteArrayOutputStream out = PooledByteArrayOutputStream.obtain(payload.length);
+        try {
+            out.write(payload, 0, payload.length);
+            return out.toBase64();
+        } finally {
+            out.release();
+        }
+    }
+
+    @Benchmark
+    public long decode() throws IOException {
+        InputStream in = new Base64StringInputStream(encoded);
+        long total = 0;
+        int read;
+        while ((read = in.read(readBuffer, 0, readBuffer.length)) > 0) {
+            total += read;
+        }
+        in.close();
+        return total;
+    }
+
+    @Benchmark
+    public long skipToEnd() throws IOException {
+        // what a header probe does to get past large segments
+        InputStream in = new Base64StringInputStream(encoded);
+        long skipped = in.skip(payload.length);
+        in.close();
+        return skipped;
+    }
+}
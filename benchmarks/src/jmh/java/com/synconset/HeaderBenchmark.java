@@ -0,0 +1,108 @@
+package com.synconset;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/**
+ * Header probes of synthetic images: a JPEG with an EXIF segment and a large
+ * thumbnail in front of the frame header, a PNG and a lossless WebP.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HeaderBenchmark {
+    @Param({"jpeg", "png", "webp"})
+    String format;
+
+    byte[] image;
+
+    @Setup
+    public void setUp() throws IOException {
+        if ("jpeg".equals(format)) {
+            image = jpeg(4032, 3024, 6);
+        } else if ("png".equals(format)) {
+            image = png(4032, 3024);
+        } else {
+            image = webp(4032, 3024);
+        }
+    }
+
+    @Benchmark
+    public ImageHeader read() throws IOException {
+        return ImageHeader.read(new ByteArrayInputStream(image));
+    }
+
+    static byte[] jpeg(int width, int height, int orientation) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(new byte[]{(byte) 0xff, (byte) 0xd8});
+        // APP1 with a big endian TIFF header and a single orientation entry
+        byte[] tiff = {
+                'E', 'x', 'i', 'f', 0, 0,
+                'M', 'M', 0, 42, 0, 0, 0, 8,
+                0, 1,
+                0x01, 0x12, 0, 3, 0, 0, 0, 1, 0, (byte) orientation, 0, 0,
+                0, 0, 0, 0
+        };
+        segment(out, 0xe1, tiff);
+        // a thumbnail sized segment the probe has to skip
+        segment(out, 0xe2, new byte[60000]);
+        byte[] frame = {8, (byte) (height >> 8), (byte) height, (byte) (width >> 8), (byte) width, 3,
+                1, 0x22, 0, 2, 0x11, 1, 3, 0x11, 1};
+        segment(out, 0xc0, frame);
+        out.write(new byte[]{(byte) 0xff, (byte) 0xd9});
+        return out.toByteArray();
+    }
+
+    static byte[] png(int width, int height) {
+        byte[] png = new byte[33];
+        byte[] signature = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n', 0, 0, 0, 13, 'I', 'H', 'D', 'R'};
+        System.arraycopy(signature, 0, png, 0, signature.length);
+        writeInt(png, 16, width);
+        writeInt(png, 20, height);
+        png[24] = 8;
+        png[25] = 6;
+        return png;
+    }
+
+    static byte[] webp(int width, int height) {
+        byte[] webp = new byte[30];
+        byte[] header = {'R', 'I', 'F', 'F', 22, 0, 0, 0, 'W', 'E', 'B', 'P', 'V', 'P', '8', 'L', 10, 0, 0, 0, 0x2f};
+        System.arraycopy(header, 0, webp, 0, header.length);
+        int bits = (width - 1) | ((height - 1) << 14);
+        webp[21] = (byte) bits;
+        webp[22] = (byte) (bits >> 8);
+        webp[23] = (byte) (bits >> 16);
+        webp[24] = (byte) (bits >> 24);
+        return webp;
+    }
+
+    private static void segment(ByteArrayOutputStream out, int marker, byte[] data) {
+        int length = data.length + 2;
+        out.write(0xff);
+        out.write(marker);
+        out.write(length >> 8);
+        out.write(length);
+        out.write(data, 0, data.length);
+    }
+
+    private static void writeInt(byte[] buffer, int offset, int value) {
+        buffer[offset] = (byte) (value >> 24);
+        buffer[offset + 1] = (byte) (value >> 16);
+        buffer[offset + 2] = (byte) (value >> 8);
+        buffer[offset + 3] = (byte) value;
+    }
+}
@@ -0,0 +1,75 @@
+package com.synconset;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Downscales synthetic photos of 1 and 12 megapixels to a 1080px long edge
+ * with every kernel of the Java resampler.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ResampleBenchmark {
+    @Param({"1", "12"})
+    int megapixels;
+
+    @Param({"box", "bilinear", "bicubic", "lanczos3"})
+    String kernel;
+
+    @Param({"1", "6"})
+    int orientation;
+
+    int sourceWidth;
+    int sourceHeight;
+    int targetWidth;
+    int targetHeight;
+    int[] source;
+    int[] pixels;
+    int[] target;
+    Resampler resampler;
+
+    @Setup
+    public void setUp() {
+        sourceWidth = megapixels == 1 ? 1152 : 4000;
+        sourceHeight = megapixels == 1 ? 864 : 3000;
+        targetWidth = 1080;
+        targetHeight = 1080 * sourceHeight / sourceWidth;
+        source = new int[sourceWidth * sourceHeight];
+        // smooth gradients with noise, roughly like a photo
+        Random random = new Random(7);
+        for (int y = 0; y < sourceHeight; y++) {
+            for (int x = 0; x < sourceWidth; x++) {
+                int r = (x * 255 / sourceWidth + random.nextInt(16)) & 0xff;
+                int g = (y * 255 / sourceHeight + random.nextInt(16)) & 0xff;
+                int b = ((x + y) * 127 / sourceWidth + random.nextInt(16)) & 0xff;
+                source[y * sourceWidth + x] = 0xff000000 | (r << 16) | (g << 8) | b;
+            }
+        }
+        pixels = new int[source.length];
+        target = new int[targetWidth * targetHeight];
+        resampler = new Resampler(Resampler.kernelOf(kernel, Resampler.KERNEL_LANCZOS3));
+    }
+
+    @Benchmark
+    public int[] resize() {
+        System.arraycopy(source, 0, pixels, 0, source.length);
+        resampler.resize(pixels, sourceWidth, sourceHeight, target, targetWidth, targetHeight, orientation, false);
+        return target;
+    }
+}
@@ -0,0 +1,53 @@
+package com.synconset;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Size, sample size and tile arithmetic done once per resize.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SizingBenchmark {
+    int sourceWidth = 4032;
+    int sourceHeight = 3024;
+
+    @Benchmark
+    public float[] calculateFactors() {
+        return ResizeMath.calculateFactors(ResizeMath.RESIZE_TYPE_MAX_PIXEL, 1080, 1080, sourceWidth, sourceHeight);
+    }
+
+    @Benchmark
+    public int calculateInSampleSize() {
+        return ResizeMath.calculateInSampleSize(sourceWidth, sourceHeight, 1080, 1080, ResizeMath.NO_MAX_SAMPLE_SIZE, true);
+    }
+
+    @Benchmark
+    public int sampleSize() {
+        return TileGrid.sampleSize(sourceWidth, sourceHeight, 1080, 810, -1);
+    }
+
+    @Benchmark
+    public void tileGrid(Blackhole blackhole) {
+        // a 100MP panorama, as decoded by TiledDecoder
+        int tileSize = TileGrid.tileSize(24L * 1024 * 1024, 8, 4, 2048 * 4);
+        TileGrid grid = new TileGrid(20000, 5000, 4000, 1000, tileSize, -1);
+        int[] rect = new int[4];
+        for (int tile = 0; tile < grid.count(); tile++) {
+            grid.paddedSource(tile, rect);
+            blackhole.consume(rect[2]);
+            grid.target(tile, rect);
+            blackhole.consume(rect[3]);
+        }
+    }
+}
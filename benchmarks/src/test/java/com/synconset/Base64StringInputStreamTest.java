@@ -0,0 +1,100 @@
+package com.synconset;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class Base64StringInputStreamTest {
+    private static byte[] payload(int length) {
+        byte[] bytes = new byte[length];
+        new Random(42).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static byte[] readFully(InputStream in, int length) throws IOException {
+        byte[] buffer = new byte[length];
+        int read = 0;
+        while (read < length) {
+            int count = in.read(buffer, read, length - read);
+            if (count < 0) {
+                break;
+            }
+            read += count;
+        }
+        return Arrays.copyOf(buffer, read);
+    }
+
+    private static void skipFully(InputStream in, long n) throws IOException {
+        while (n > 0) {
+            long skipped = in.skip(n);
+            if (skipped <= 0) {
+                throw new IOException("end of stream");
+            }
+            n -= skipped;
+        }
+    }
+
+    @Test
+    public void readsMimeBase64() throws IOException {
+        byte[] bytes = payload(10000);
+        String mime = Base64.getMimeEncoder().encodeToString(bytes);
+        assertArrayEquals(bytes, readFully(new Base64StringInputStream(mime), bytes.length + 10));
+    }
+
+    @Test
+    public void skipCountsOnlyAlphabetCharacters() throws IOException {
+        byte[] bytes = payload(10000);
+        String mime = Base64.getMimeEncoder().encodeToString(bytes);
+        InputStream in = new Base64StringInputStream(mime);
+        skipFully(in, 1000);
+        assertArrayEquals(Arrays.copyOfRange(bytes, 1000, 1006), readFully(in, 6));
+        skipFully(in, 2000);
+        assertArrayEquals(Arrays.copyOfRange(bytes, 3006, 3022), readFully(in, 16));
+    }
+
+    @Test
+    public void skipOverUnevenLineBreaks() throws IOException {
+        byte[] bytes = payload(4000);
+        String plain = Base64.getEncoder().encodeToString(bytes);
+        StringBuilder wrapped = new StringBuilder("data:image/jpeg;base64,");
+        for (int i = 0; i < plain.length(); i += 57) {
+            wrapped.append(plain, i, Math.min(plain.length(), i + 57)).append("\n ");
+        }
+        for (int offset = 0; offset < bytes.length; offset += 331) {
+            InputStream in = new Base64StringInputStream(wrapped.toString());
+            skipFully(in, offset);
+            int length = Math.min(7, bytes.length - offset);
+            assertArrayEquals(Arrays.copyOfRange(bytes, offset, offset + length), readFully(in, length));
+        }
+    }
+
+    @Test
+    public void skipIntoPaddedEnd() throws IOException {
+        for (int length = 1; length <= 12; length++) {
+            byte[] bytes = payload(length);
+            String mime = Base64.getMimeEncoder().encodeToString(bytes);
+            InputStream in = new Base64StringInputStream(mime);
+            assertEquals(length - 1, in.skip(length - 1));
+            assertEquals(bytes[length - 1] & 0xff, in.read());
+            assertEquals(-1, in.read());
+            assertEquals(length, new Base64StringInputStream(mime).skip(length + 5));
+        }
+    }
+
+    @Test
+    public void negativeSkipLeavesThePositionAlone() throws IOException {
+        byte[] bytes = payload(100);
+        InputStream in = new Base64StringInputStream(Base64.getEncoder().encodeToString(bytes));
+        assertEquals(bytes[0] & 0xff, in.read());
+        assertEquals(0, in.skip(-5));
+        assertEquals(0, in.skip(0));
+        assertEquals(bytes[1] & 0xff, in.read());
+    }
+}
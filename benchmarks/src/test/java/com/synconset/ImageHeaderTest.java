@@ -0,0 +1,68 @@
+package com.synconset;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Base64;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+public class ImageHeaderTest {
+    /**
+     * A JPEG header with segments the reader skips (an ICC profile and a
+     * comment) ahead of its frame header.
+     */
+    private static byte[] jpeg(int width, int height) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(0xff);
+        out.write(0xd8);
+        segment(out, 0xe2, 3000);
+        segment(out, 0xfe, 517);
+        out.write(0xff);
+        out.write(0xc0);
+        writeShort(out, 17);
+        out.write(8);
+        writeShort(out, height);
+        writeShort(out, width);
+        for (int i = 0; i < 12; i++) {
+            out.write(0);
+        }
+        return out.toByteArray();
+    }
+
+    private static void segment(ByteArrayOutputStream out, int marker, int length) {
+        out.write(0xff);
+        out.write(marker);
+        writeShort(out, length + 2);
+        for (int i = 0; i < length; i++) {
+            out.write(i * 31);
+        }
+    }
+
+    private static void writeShort(ByteArrayOutputStream out, int value) {
+        out.write(value >> 8);
+        out.write(value);
+    }
+
+    @Test
+    public void readsJpegFromBytes() throws IOException {
+        ImageHeader header = ImageHeader.read(new ByteArrayInputStream(jpeg(4032, 3024)));
+        assertNotNull(header);
+        assertEquals(ImageHeader.FORMAT_JPEG, header.format);
+        assertEquals(4032, header.width);
+        assertEquals(3024, header.height);
+    }
+
+    @Test
+    public void readsJpegFromWrappedBase64() throws IOException {
+        // getImageSize and storeImage read base64 data like this, line breaks included
+        String mime = "data:image/jpeg;base64," + Base64.getMimeEncoder().encodeToString(jpeg(4032, 3024));
+        ImageHeader header = ImageHeader.read(new Base64StringInputStream(mime));
+        assertNotNull(header);
+        assertEquals(4032, header.width);
+        assertEquals(3024, header.height);
+    }
+}
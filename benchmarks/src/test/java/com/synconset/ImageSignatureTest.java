@@ -0,0 +1,75 @@
+package com.synconset;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+public class ImageSignatureTest {
+    private static int grey(int value) {
+        return 0xff000000 | (value << 16) | (value << 8) | value;
+    }
+
+    /**
+     * A grey ramp across the image, white on the left unless mirrored.
+     */
+    private static int[] ramp(int width, boolean mirrored) {
+        int[] row = new int[width];
+        for (int x = 0; x < width; x++) {
+            int value = 255 - x * 255 / (width - 1);
+            row[mirrored ? width - 1 - x : x] = grey(value);
+        }
+        return row;
+    }
+
+    /**
+     * Feeds the same row for every line, at the signature's stride.
+     */
+    private static ImageSignature sign(int[] row, int height) {
+        ImageSignature signature = new ImageSignature(row.length, height);
+        for (int y = 0; y < height; y += signature.stride()) {
+            signature.addRow(row, y);
+        }
+        return signature;
+    }
+
+    @Test
+    public void gradientHashesToKnownBits() {
+        // every cell is brighter than its right neighbour
+        assertEquals("ffffffffffffffff", sign(ramp(90, false), 80).dHash());
+        // also when large enough to be sampled at a stride
+        ImageSignature sampled = sign(ramp(1800, false), 400);
+        assertEquals(3, sampled.stride());
+        assertEquals("ffffffffffffffff", sampled.dHash());
+    }
+
+    @Test
+    public void mirroringChangesTheHash() {
+        String hash = sign(ramp(90, false), 80).dHash();
+        String mirrored = sign(ramp(90, true), 80).dHash();
+        assertEquals("0000000000000000", mirrored);
+        assertNotEquals(hash, mirrored);
+    }
+
+    @Test
+    public void flatImageGivesUniformPlaceholder() throws JSONException {
+        int[] row = new int[64];
+        Arrays.fill(row, 0xff3c82c8);
+        ImageSignature signature = sign(row, 48);
+        JSONObject placeholder = signature.placeholder();
+        assertEquals("#3c82c8", placeholder.getString("color"));
+        assertEquals(4, placeholder.getInt("width"));
+        assertEquals(3, placeholder.getInt("height"));
+        StringBuilder grid = new StringBuilder();
+        for (int i = 0; i < 4 * 3; i++) {
+            grid.append("3c82c8");
+        }
+        assertEquals(grid.toString(), placeholder.getString("grid"));
+        // no cell is brighter than another
+        assertEquals("0000000000000000", signature.dHash());
+    }
+}
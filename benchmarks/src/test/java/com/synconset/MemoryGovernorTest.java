@@ -0,0 +1,130 @@
+package com.synconset;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MemoryGovernorTest {
+    // long enough for a blocked acquire to have been admitted if it were going to be
+    private static final long BLOCKED_MILLIS = 300;
+    private static final long TIMEOUT_SECONDS = 5;
+
+    /**
+     * Reserves on a thread of its own, so the test can watch it wait.
+     */
+    private static class Acquirer extends Thread {
+        final CountDownLatch done = new CountDownLatch(1);
+        private final MemoryGovernor governor;
+        private final long bytes;
+        private final MemoryGovernor.Waiter waiter;
+        volatile boolean admitted;
+        volatile boolean interrupted;
+
+        Acquirer(MemoryGovernor governor, long bytes, MemoryGovernor.Waiter waiter) {
+            this.governor = governor;
+            this.bytes = bytes;
+            this.waiter = waiter;
+            start();
+        }
+
+        @Override
+        public void run() {
+            admitted = governor.acquire(bytes, waiter);
+            interrupted = isInterrupted();
+            done.countDown();
+        }
+
+        boolean blocked() throws InterruptedException {
+            return !done.await(BLOCKED_MILLIS, TimeUnit.MILLISECONDS);
+        }
+
+        boolean finish() throws InterruptedException {
+            return done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void waitsUntilReleasedAndAccountsForIt() throws InterruptedException, JSONException {
+        MemoryGovernor governor = new MemoryGovernor(100);
+        assertTrue(governor.acquire(60, null));
+        assertEquals(40, governor.available());
+        assertFalse(governor.fits(50));
+
+        Acquirer acquirer = new Acquirer(governor, 50, null);
+        assertTrue(acquirer.blocked());
+        governor.release(60);
+        assertTrue(acquirer.finish());
+        assertTrue(acquirer.admitted);
+        assertEquals(50, governor.available());
+
+        JSONObject stats = governor.toJson();
+        assertEquals(2, stats.getLong("admitted"));
+        assertEquals(1, stats.getLong("waits"));
+        assertEquals(60, stats.getLong("peakReserved"));
+        assertEquals(50, stats.getLong("reserved"));
+        governor.release(50);
+        assertEquals(100, governor.available());
+    }
+
+    @Test
+    public void oversizeRequestIsAdmittedWhenIdle() throws InterruptedException {
+        MemoryGovernor governor = new MemoryGovernor(100);
+        assertTrue(governor.acquire(250, null));
+        assertEquals(-150, governor.available());
+        // nothing fits next to it, however small
+        assertFalse(governor.fits(1));
+        governor.release(250);
+
+        // held back while anything else runs
+        assertTrue(governor.acquire(10, null));
+        Acquirer acquirer = new Acquirer(governor, 250, null);
+        assertTrue(acquirer.blocked());
+        governor.release(10);
+        assertTrue(acquirer.finish());
+        assertTrue(acquirer.admitted);
+        governor.release(250);
+        assertEquals(100, governor.available());
+    }
+
+    @Test
+    public void cancelledWaiterGivesUp() throws InterruptedException {
+        MemoryGovernor governor = new MemoryGovernor(100);
+        assertTrue(governor.acquire(100, null));
+        final AtomicBoolean cancelled = new AtomicBoolean();
+        Acquirer acquirer = new Acquirer(governor, 50, new MemoryGovernor.Waiter() {
+            @Override
+            public boolean isCancelled() {
+                return cancelled.get();
+            }
+        });
+        assertTrue(acquirer.blocked());
+        cancelled.set(true);
+        assertTrue(acquirer.finish());
+        assertFalse(acquirer.admitted);
+        // nothing was reserved for it
+        assertEquals(0, governor.available());
+        governor.release(100);
+        assertEquals(100, governor.available());
+    }
+
+    @Test
+    public void interruptedWaiterGivesUpAndKeepsTheInterrupt() throws InterruptedException {
+        MemoryGovernor governor = new MemoryGovernor(100);
+        assertTrue(governor.acquire(100, null));
+        Acquirer acquirer = new Acquirer(governor, 50, null);
+        assertTrue(acquirer.blocked());
+        acquirer.interrupt();
+        assertTrue(acquirer.finish());
+        assertFalse(acquirer.admitted);
+        assertTrue(acquirer.interrupted);
+        assertEquals(0, governor.available());
+    }
+}
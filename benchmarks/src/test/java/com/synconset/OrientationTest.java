@@ -0,0 +1,124 @@
+package com.synconset;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks every EXIF orientation against a small stored image whose expected
+ * displayed form is written down as the EXIF specification describes it.
+ */
+public class OrientationTest {
+    private static final int WIDTH = 4;
+    private static final int HEIGHT = 3;
+
+    /**
+     * The stored pixel shown at x, y of the displayed image.
+     */
+    private static int expected(int orientation, int[][] stored, int x, int y) {
+        switch (orientation) {
+            case Orientation.FLIP_HORIZONTAL:
+                return stored[y][WIDTH - 1 - x];
+            case Orientation.ROTATE_180:
+                return stored[HEIGHT - 1 - y][WIDTH - 1 - x];
+            case Orientation.FLIP_VERTICAL:
+                return stored[HEIGHT - 1 - y][x];
+            case Orientation.TRANSPOSE:
+                return stored[x][y];
+            case Orientation.ROTATE_90:
+                return stored[HEIGHT - 1 - x][y];
+            case Orientation.TRANSVERSE:
+                return stored[HEIGHT - 1 - x][WIDTH - 1 - y];
+            case Orientation.ROTATE_270:
+                return stored[x][WIDTH - 1 - y];
+            default:
+                return stored[y][x];
+        }
+    }
+
+    private static int[][] stored() {
+        int[][] stored = new int[HEIGHT][WIDTH];
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                stored[y][x] = y * WIDTH + x;
+            }
+        }
+        return stored;
+    }
+
+    /**
+     * Moves every stored pixel, by its centre, to where the transform puts it.
+     */
+    private static int[][] display(int orientation, int[][] stored) {
+        boolean transposed = Orientation.isTransposed(orientation);
+        int[][] displayed = new int[transposed ? WIDTH : HEIGHT][transposed ? HEIGHT : WIDTH];
+        float[] m = new float[6];
+        Orientation.transform(orientation, WIDTH, HEIGHT, m);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                float cx = x + 0.5f;
+                float cy = y + 0.5f;
+                int dx = (int) Math.floor(m[0] * cx + m[1] * cy + m[2]);
+                int dy = (int) Math.floor(m[3] * cx + m[4] * cy + m[5]);
+                displayed[dy][dx] = stored[y][x];
+            }
+        }
+        return displayed;
+    }
+
+    @Test
+    public void transformsMatchTheSpecification() {
+        int[][] stored = stored();
+        for (int orientation = Orientation.NORMAL; orientation <= Orientation.ROTATE_270; orientation++) {
+            int[][] displayed = display(orientation, stored);
+            for (int y = 0; y < displayed.length; y++) {
+                for (int x = 0; x < displayed[y].length; x++) {
+                    assertEquals("orientation " + orientation + " at " + x + "," + y,
+                            expected(orientation, stored, x, y), displayed[y][x]);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void onlyFiveToEightAreTransposed() {
+        for (int orientation = Orientation.NORMAL; orientation <= Orientation.ROTATE_270; orientation++) {
+            assertEquals(orientation >= Orientation.TRANSPOSE, Orientation.isTransposed(orientation));
+        }
+        assertEquals(Orientation.NORMAL, Orientation.sanitize(0));
+        assertEquals(Orientation.NORMAL, Orientation.sanitize(9));
+    }
+
+    @Test
+    public void cropsMapBackToTheStoredPixels() {
+        int[][] stored = stored();
+        for (int orientation = Orientation.NORMAL; orientation <= Orientation.ROTATE_270; orientation++) {
+            boolean transposed = Orientation.isTransposed(orientation);
+            int displayedWidth = transposed ? HEIGHT : WIDTH;
+            int displayedHeight = transposed ? WIDTH : HEIGHT;
+            for (int top = 0; top < displayedHeight; top++) {
+                for (int bottom = top + 1; bottom <= displayedHeight; bottom++) {
+                    for (int left = 0; left < displayedWidth; left++) {
+                        for (int right = left + 1; right <= displayedWidth; right++) {
+                            // the stored pixels the crop shows, as their bounding box
+                            int[] box = {WIDTH, HEIGHT, 0, 0};
+                            for (int y = top; y < bottom; y++) {
+                                for (int x = left; x < right; x++) {
+                                    int pixel = expected(orientation, stored, x, y);
+                                    box[0] = Math.min(box[0], pixel % WIDTH);
+                                    box[1] = Math.min(box[1], pixel / WIDTH);
+                                    box[2] = Math.max(box[2], pixel % WIDTH + 1);
+                                    box[3] = Math.max(box[3], pixel / WIDTH + 1);
+                                }
+                            }
+                            int[] rect = {left, top, right, bottom};
+                            Orientation.toStored(orientation, WIDTH, HEIGHT, rect);
+                            assertArrayEquals("orientation " + orientation, box, rect);
+                        }
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.synconset;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class QualitySearchTest {
+    /**
+     * An image whose encoded size grows with its pixels and its quality,
+     * a byte per thousand pixels and quality step.
+     */
+    private static class SizedEncoder implements QualitySearch.Encoder {
+        private final int width;
+        private final int height;
+        private final SizedEncoder parent;
+        int encodes;
+        int trials;
+        int released;
+
+        SizedEncoder(int width, int height) {
+            this(width, height, null);
+        }
+
+        private SizedEncoder(int width, int height, SizedEncoder parent) {
+            this.width = width;
+            this.height = height;
+            this.parent = parent;
+        }
+
+        long size(int quality) {
+            return (long) width * height * quality / 1000;
+        }
+
+        @Override
+        public int width() {
+            return width;
+        }
+
+        @Override
+        public int height() {
+            return height;
+        }
+
+        @Override
+        public void encode(int quality, PooledByteArrayOutputStream out) {
+            encodes++;
+            out.write(new byte[(int) size(quality)], 0, (int) size(quality));
+        }
+
+        @Override
+        public QualitySearch.Encoder scaled(int width, int height) {
+            trials++;
+            return new SizedEncoder(width, height, this);
+        }
+
+        @Override
+        public void release() {
+            if (parent != null) {
+                parent.released++;
+            }
+        }
+    }
+
+    private static QualitySearch.Result search(SizedEncoder encoder, int maxQuality, long maxBytes) {
+        QualitySearch.Result result = QualitySearch.search(encoder, maxQuality, maxBytes);
+        // every full encode is counted, and the buffer is that of the quality reported
+        assertEquals(encoder.encodes, result.attempts);
+        assertEquals(encoder.size(result.quality), result.encoded.size());
+        assertEquals(result.fits, result.encoded.size() <= maxBytes);
+        result.encoded.release();
+        return result;
+    }
+
+    @Test
+    public void convergesOnTheBestFittingQuality() {
+        // small enough to search without a trial copy
+        SizedEncoder small = new SizedEncoder(100, 100);
+        QualitySearch.Result result = search(small, 20, small.size(15) + 5);
+        assertTrue(result.fits);
+        assertEquals(15, result.quality);
+        assertEquals(0, small.trials);
+
+        // the trial copy seeds the search right at the answer
+        SizedEncoder large = new SizedEncoder(4000, 3000);
+        result = search(large, 90, large.size(55) + 500);
+        assertTrue(result.fits);
+        assertEquals(55, result.quality);
+        assertEquals(1, large.trials);
+        assertEquals(1, large.released);
+    }
+
+    @Test
+    public void fullEncodesAreCapped() {
+        SizedEncoder encoder = new SizedEncoder(1000, 1000);
+        for (long maxBytes = 0; maxBytes <= encoder.size(100); maxBytes += 997) {
+            encoder.encodes = 0;
+            QualitySearch.Result result = search(encoder, 100, maxBytes);
+            assertTrue("budget " + maxBytes, result.attempts <= QualitySearch.MAX_ENCODES);
+        }
+    }
+
+    @Test
+    public void fallsBackToTheFloorWhenNothingFits() {
+        SizedEncoder encoder = new SizedEncoder(100, 100);
+        QualitySearch.Result result = search(encoder, 90, 1);
+        assertFalse(result.fits);
+        assertEquals(QualitySearch.MIN_QUALITY, result.quality);
+        assertEquals(QualitySearch.MAX_ENCODES, result.attempts);
+    }
+}
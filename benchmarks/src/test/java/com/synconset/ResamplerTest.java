@@ -0,0 +1,130 @@
+package com.synconset;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ResamplerTest {
+    private static final int[] KERNELS = {
+            Resampler.KERNEL_BOX, Resampler.KERNEL_BILINEAR, Resampler.KERNEL_BICUBIC, Resampler.KERNEL_LANCZOS3
+    };
+    private static final ForkJoinPool POOL = new ForkJoinPool(2);
+
+    private static int[] noise(int width, int height) {
+        Random random = new Random(3);
+        int[] pixels = new int[width * height];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = 0xff000000 | random.nextInt(0x1000000);
+        }
+        return pixels;
+    }
+
+    private static int[] resize(int kernel, int[] src, int sourceWidth, int sourceHeight, int targetWidth,
+                                int targetHeight, int orientation) {
+        int[] dst = new int[targetWidth * targetHeight];
+        new Resampler(kernel, POOL).resize(src.clone(), sourceWidth, sourceHeight, dst, targetWidth, targetHeight,
+                orientation, false);
+        return dst;
+    }
+
+    private static int green(int pixel) {
+        return (pixel >> 8) & 0xff;
+    }
+
+    @Test
+    public void scaleOneIsIdentity() {
+        int[] src = noise(37, 23);
+        for (int kernel : KERNELS) {
+            assertArrayEquals("kernel " + kernel, src, resize(kernel, src, 37, 23, 37, 23, Orientation.NORMAL));
+        }
+    }
+
+    @Test
+    public void scaleOneWritesTheOrientation() {
+        int width = 5;
+        int height = 3;
+        int[] src = noise(width, height);
+        // rotated by 90 degrees clockwise, the displayed image is height wide
+        int[] dst = resize(Resampler.KERNEL_LANCZOS3, src, width, height, width, height, Orientation.ROTATE_90);
+        for (int y = 0; y < width; y++) {
+            for (int x = 0; x < height; x++) {
+                assertEquals(src[(height - 1 - x) * width + y], dst[y * height + x]);
+            }
+        }
+    }
+
+    @Test
+    public void constantImageStaysConstant() {
+        int color = 0xff3c82c8;
+        int[] src = new int[64 * 48];
+        Arrays.fill(src, color);
+        int[][] sizes = {{17, 13}, {64, 48}, {150, 101}};
+        for (int kernel : KERNELS) {
+            for (int[] size : sizes) {
+                int[] dst = resize(kernel, src, 64, 48, size[0], size[1], Orientation.NORMAL);
+                for (int pixel : dst) {
+                    assertEquals("kernel " + kernel + " to " + size[0] + "x" + size[1], color, pixel);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void downscalingAveragesFineDetail() {
+        // one pixel stripes alias into bands unless every source pixel contributes
+        int[] src = new int[64 * 8];
+        for (int i = 0; i < src.length; i++) {
+            src[i] = (i % 2 == 0) ? 0xffffffff : 0xff000000;
+        }
+        for (int kernel : KERNELS) {
+            int[] dst = resize(kernel, src, 64, 8, 16, 2, Orientation.NORMAL);
+            for (int x = 2; x < 14; x++) {
+                int value = green(dst[x]);
+                assertTrue("kernel " + kernel + " gives " + value, Math.abs(value - 128) <= 8);
+            }
+        }
+    }
+
+    @Test
+    public void lanczosIsSharperThanBilinear() {
+        // a step from 64 to 192, enlarged four times
+        int width = 16;
+        int[] src = new int[width];
+        for (int x = 0; x < width; x++) {
+            int value = x < width / 2 ? 64 : 192;
+            src[x] = 0xff000000 | (value << 16) | (value << 8) | value;
+        }
+        int[] bilinear = resize(Resampler.KERNEL_BILINEAR, src, width, 1, width * 4, 1, Orientation.NORMAL);
+        int[] lanczos = resize(Resampler.KERNEL_LANCZOS3, src, width, 1, width * 4, 1, Orientation.NORMAL);
+        int bilinearMin = 255;
+        int bilinearMax = 0;
+        int lanczosMin = 255;
+        int lanczosMax = 0;
+        for (int x = 0; x < width * 4; x++) {
+            bilinearMin = Math.min(bilinearMin, green(bilinear[x]));
+            bilinearMax = Math.max(bilinearMax, green(bilinear[x]));
+            lanczosMin = Math.min(lanczosMin, green(lanczos[x]));
+            lanczosMax = Math.max(lanczosMax, green(lanczos[x]));
+            if (x > 0) {
+                // bilinear rises monotonically across the edge
+                assertTrue(green(bilinear[x]) >= green(bilinear[x - 1]));
+            }
+        }
+        assertEquals(64, bilinearMin);
+        assertEquals(192, bilinearMax);
+        // the Lanczos lobes overshoot on both sides of the edge
+        assertTrue(lanczosMin < 64);
+        assertTrue(lanczosMax > 192);
+        // and its transition is steeper: at the pixels right next to the edge
+        // Lanczos is further from the middle grey than bilinear
+        int edge = width * 2;
+        assertTrue(green(lanczos[edge - 2]) < green(bilinear[edge - 2]));
+        assertTrue(green(lanczos[edge + 1]) > green(bilinear[edge + 1]));
+    }
+}
@@ -0,0 +1,87 @@
+package com.synconset;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ResizeMetricsTest {
+    private static void assertClose(String what, long expected, long actual) {
+        // eight buckets per power of two, the middle of one is within 1/16 of its values
+        assertTrue(what + ": expected about " + expected + " but was " + actual,
+                Math.abs(actual - expected) <= expected / 16 + 1);
+    }
+
+    @Test
+    public void bucketsAreExactBelowEightAndMonotonic() {
+        for (long value = 0; value < 8; value++) {
+            assertEquals(value, ResizeMetrics.Histogram.bucket(value));
+            assertEquals(value, ResizeMetrics.Histogram.middle((int) value));
+        }
+        int previous = 0;
+        for (long value = 1; value < 1 << 20; value++) {
+            int bucket = ResizeMetrics.Histogram.bucket(value);
+            assertTrue(bucket >= previous);
+            assertClose("middle of the bucket of " + value, value, ResizeMetrics.Histogram.middle(bucket));
+            previous = bucket;
+        }
+        assertTrue(ResizeMetrics.Histogram.bucket(Long.MAX_VALUE) < 61 * 8);
+    }
+
+    @Test
+    public void uniformDistribution() {
+        ResizeMetrics.Histogram histogram = new ResizeMetrics.Histogram();
+        for (long value = 1; value <= 10000; value++) {
+            histogram.record(value);
+        }
+        assertEquals(10000, histogram.count());
+        assertClose("p50", 5000, histogram.percentile(0.50));
+        assertClose("p95", 9500, histogram.percentile(0.95));
+        assertClose("p99", 9900, histogram.percentile(0.99));
+        assertClose("p100", 10000, histogram.percentile(1.0));
+    }
+
+    @Test
+    public void skewedDistribution() {
+        // 90% fast requests around 20ms, 10% slow ones around 800ms, in microseconds
+        ResizeMetrics.Histogram histogram = new ResizeMetrics.Histogram();
+        Random random = new Random(11);
+        for (int i = 0; i < 100000; i++) {
+            histogram.record(i % 10 == 0 ? 800000 : 20000 + random.nextInt(100));
+        }
+        assertClose("p50", 20050, histogram.percentile(0.50));
+        assertClose("p95", 800000, histogram.percentile(0.95));
+        assertEquals(800000, histogram.percentile(0.99));
+    }
+
+    @Test
+    public void constantValuesComeBackExactly() {
+        ResizeMetrics.Histogram histogram = new ResizeMetrics.Histogram();
+        for (int i = 0; i < 50; i++) {
+            histogram.record(777);
+        }
+        // the bucket's middle is above 777, the maximum caps it
+        assertEquals(777, histogram.percentile(0.50));
+        assertEquals(777, histogram.percentile(0.99));
+    }
+
+    @Test
+    public void emptyAndReset() throws JSONException {
+        ResizeMetrics.Histogram histogram = new ResizeMetrics.Histogram();
+        assertEquals(0, histogram.percentile(0.5));
+        histogram.record(-3);
+        histogram.record(40);
+        assertEquals(0, histogram.percentile(0.5));
+        histogram.reset();
+        assertEquals(0, histogram.count());
+        histogram.record(2000);
+        JSONObject json = histogram.toJson(1000.0);
+        assertEquals(1, json.getLong("count"));
+        assertEquals(2.0, json.getDouble("max"), 0.0);
+        assertEquals(2.0, json.getDouble("mean"), 0.0);
+    }
+}
@@ -0,0 +1,177 @@
+package com.synconset;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Decodes a base64 string while it is read, so callers never hold the decoded
+ * payload as a whole. A leading data URI prefix ("data:image/jpeg;base64,")
+ * is skipped, skip() jumps over whole quads without decoding them, counting
+ * only the characters of the alphabet so that line breaks, e.g. of MIME
+ * base64, do not throw it off.
+ */
+class Base64StringInputStream extends InputStream {
+    private static final int[] DECODE = new int[128];
+
+    static {
+        for (int i = 0; i < DECODE.length; i++) {
+            DECODE[i] = -1;
+        }
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+        for (int i = 0; i < alphabet.length(); i++) {
+            DECODE[alphabet.charAt(i)] = i;
+        }
+        // url safe variant
+        DECODE['-'] = 62;
+        DECODE['_'] = 63;
+    }
+
+    private final String data;
+    private final int end;
+    private int position;
+    private final int[] quad = new int[4];
+    private final byte[] pending = new byte[3];
+    private int pendingOffset;
+    private int pendingLength;
+
+    public Base64StringInputStream(String data) {
+        this.data = data;
+        this.end = data.length();
+        int comma = data.indexOf(',');
+        // only look for a data URI header at the very start of the string
+        this.position = (data.startsWith("data:") && comma > 0) ? comma + 1 : 0;
+    }
+
+    /**
+     * Upper bound of the number of bytes left in the stream.
+     */
+    public int remainingEstimate() {
+        return pendingLength - pendingOffset + (end - position) / 4 * 3 + 3;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (pendingOffset == pendingLength && !fill()) {
+            return -1;
+        }
+        return pending[pendingOffset++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        int read = 0;
+        while (read < length) {
+            if (pendingOffset == pendingLength) {
+                if (length - read >= 3) {
+                    // decode straight into the caller's buffer while whole quads fit
+                    int decoded = decodeQuad(buffer, offset + read);
+                    if (decoded == 0) {
+                        break;
+                    }
+                    read += decoded;
+                    continue;
+                }
+                if (!fill()) {
+                    break;
+                }
+            }
+            int count = Math.min(length - read, pendingLength - pendingOffset);
+            System.arraycopy(pending, pendingOffset, buffer, offset + read, count);
+            pendingOffset += count;
+            read += count;
+        }
+        return read == 0 ? -1 : read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        if (n <= 0) {
+            return 0;
+        }
+        long skipped = 0;
+        int buffered = Math.min((int) Math.min(n, Integer.MAX_VALUE), pendingLength - pendingOffset);
+        pendingOffset += buffered;
+        skipped += buffered;
+        if (n - skipped >= 3) {
+            long quads = (n - skipped) / 3;
+            long jumped = 0;
+            int counted = 0;
+            int scan = position;
+            // stops before padding and anything invalid, read() deals with those
+            while (jumped < quads && scan < end) {
+                char c = data.charAt(scan);
+                if (c < 128 && DECODE[c] >= 0) {
+                    if (++counted == 4) {
+                        counted = 0;
+                        jumped++;
+                        position = scan + 1;
+                    }
+                } else if (!Character.isWhitespace(c)) {
+                    break;
+                }
+                scan++;
+            }
+            skipped += jumped * 3;
+        }
+        while (skipped < n && read() != -1) {
+            skipped++;
+        }
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return pendingLength - pendingOffset;
+    }
+
+    private boolean fill() throws IOException {
+        pendingOffset = 0;
+        pendingLength = Math.max(0, decodeQuad(pending, 0));
+        return pendingLength > 0;
+    }
+
+    /**
+     * Decodes the next quad into target and returns the number of bytes
+     * written, 0 at the end of the input. A partial quad is left untouched.
+     */
+    private int decodeQuad(byte[] target, int offset) throws IOException {
+        int count = 0;
+        int start = position;
+        while (count < 4 && position < end) {
+            char c = data.charAt(position++);
+            if (c == '=') {
+                break;
+            }
+            int value = c < 128 ? DECODE[c] : -1;
+            if (value < 0) {
+                if (Character.isWhitespace(c)) {
+                    continue;
+                }
+                throw new IOException("Invalid base64 character at " + (position - 1));
+            }
+            quad[count++] = value;
+        }
+        if (count == 4) {
+            target[offset] = (byte) ((quad[0] << 2) | (quad[1] >> 4));
+            target[offset + 1] = (byte) ((quad[1] << 4) | (quad[2] >> 2));
+            target[offset + 2] = (byte) ((quad[2] << 6) | quad[3]);
+            return 3;
+        }
+        // padding or end of input, nothing more follows
+        position = end;
+        if (count == 3) {
+            target[offset] = (byte) ((quad[0] << 2) | (quad[1] >> 4));
+            target[offset + 1] = (byte) ((quad[1] << 4) | (quad[2] >> 2));
+            return 2;
+        } else if (count == 2) {
+            target[offset] = (byte) ((quad[0] << 2) | (quad[1] >> 4));
+            return 1;
+        } else if (count == 1) {
+            throw new IOException("Truncated base64 input at " + start);
+        }
+        return 0;
+    }
+}
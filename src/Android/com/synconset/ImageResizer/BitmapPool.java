@@ -0,0 +1,198 @@
+package com.synconset;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Mutable bitmaps kept for reuse as decode targets (BitmapFactory.Options.inBitmap)
+ * and as scaling targets, capped at a byte budget. From KitKat on any pooled
+ * bitmap that is large enough is reconfigured to the requested size, bitmaps
+ * that would waste more than half of their memory are not handed out. Before
+ * KitKat only bitmaps of exactly the requested size and config match.
+ */
+class BitmapPool {
+    private static BitmapPool shared;
+
+    private final long maxBytes;
+    // oldest first, evicted from the front
+    private final List<Bitmap> bitmaps = new ArrayList<Bitmap>();
+    private long bytes;
+    private long hits;
+    private long misses;
+    private long puts;
+    private long evictions;
+
+    public BitmapPool(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * The pool shared by the plugin, an eighth of the heap.
+     */
+    public static synchronized BitmapPool shared() {
+        if (shared == null) {
+            shared = new BitmapPool(Runtime.getRuntime().maxMemory() / 8);
+        }
+        return shared;
+    }
+
+    public static int bytesPerPixel(Bitmap.Config config) {
+        if (config == Bitmap.Config.RGB_565 || config == Bitmap.Config.ARGB_4444) {
+            return 2;
+        } else if (config == Bitmap.Config.ALPHA_8) {
+            return 1;
+        }
+        return 4;
+    }
+
+    /**
+     * A bitmap of the given size with undefined content, meant to be fully
+     * overwritten, e.g. by a decoder.
+     */
+    public Bitmap getDirty(int width, int height, Bitmap.Config config) {
+        Bitmap bitmap = take(width, height, config);
+        if (bitmap == null) {
+            bitmap = Bitmap.createBitmap(width, height, config);
+        }
+        return bitmap;
+    }
+
+    /**
+     * A transparent bitmap of the given size.
+     */
+    public Bitmap get(int width, int height, Bitmap.Config config) {
+        Bitmap bitmap = take(width, height, config);
+        if (bitmap == null) {
+            return Bitmap.createBitmap(width, height, config);
+        }
+        bitmap.eraseColor(0);
+        return bitmap;
+    }
+
+    private synchronized Bitmap take(int width, int height, Bitmap.Config config) {
+        long needed = (long) width * height * bytesPerPixel(config);
+        boolean reconfigurable = Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT;
+        Bitmap best = null;
+        for (Bitmap bitmap : bitmaps) {
+            if (reconfigurable) {
+                int size = bitmap.getAllocationByteCount();
+                if (size >= needed && size <= needed * 2 && (best == null || size < best.getAllocationByteCount())) {
+                    best = bitmap;
+                }
+            } else if (bitmap.getWidth() == width && bitmap.getHeight() == height && bitmap.getConfig() == config) {
+                best = bitmap;
+                break;
+            }
+        }
+        if (best == null) {
+            misses++;
+            return null;
+        }
+        bitmaps.remove(best);
+        bytes -= sizeOf(best);
+        hits++;
+        if (reconfigurable && (best.getWidth() != width || best.getHeight() != height || best.getConfig() != config)) {
+            best.reconfigure(width, height, config);
+        }
+        return best;
+    }
+
+    /**
+     * Hands a bitmap back for reuse, bitmaps that can not be reused are recycled.
+     */
+    public void put(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled()) {
+            return;
+        }
+        long size = sizeOf(bitmap);
+        if (!bitmap.isMutable() || size > maxBytes) {
+            bitmap.recycle();
+            return;
+        }
+        List<Bitmap> evicted = new ArrayList<Bitmap>();
+        synchronized (this) {
+            if (bitmaps.contains(bitmap)) {
+                return;
+            }
+            while (bytes + size > maxBytes && !bitmaps.isEmpty()) {
+                Bitmap eldest = bitmaps.remove(0);
+                bytes -= sizeOf(eldest);
+                evictions++;
+                evicted.add(eldest);
+            }
+            bitmaps.add(bitmap);
+            bytes += size;
+            puts++;
+        }
+        for (Bitmap eldest : evicted) {
+            eldest.recycle();
+        }
+    }
+
+    /**
+     * Lets a decode reuse a pooled bitmap. The expected size of the result has
+     * to be known, e.g. from a bounds decode.
+     */
+    public void prepareDecode(BitmapFactory.Options options, int decodedWidth, int decodedHeight) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT && options.inSampleSize > 1) {
+            // sampled decodes only reuse bitmaps from KitKat on
+            return;
+        }
+        Bitmap.Config config = options.inPreferredConfig != null ? options.inPreferredConfig : Bitmap.Config.ARGB_8888;
+        options.inMutable = true;
+        options.inBitmap = getDirty(decodedWidth, decodedHeight, config);
+    }
+
+    /**
+     * Returns an unused decode target to the pool after a failed decode.
+     * Decoders reject inBitmap with an IllegalArgumentException when it does
+     * not fit, callers retry without it.
+     */
+    public void abandonDecode(BitmapFactory.Options options) {
+        if (options.inBitmap != null) {
+            put(options.inBitmap);
+            options.inBitmap = null;
+        }
+    }
+
+    public synchronized void clear() {
+        for (Bitmap bitmap : bitmaps) {
+            bitmap.recycle();
+        }
+        bitmaps.clear();
+        bytes = 0;
+    }
+
+    public synchronized JSONObject getStats() throws JSONException {
+        JSONObject stats = new JSONObject();
+        stats.put("hits", hits);
+        stats.put("misses", misses);
+        stats.put("puts", puts);
+        stats.put("evictions", evictions);
+        stats.put("pooled", bitmaps.size());
+        stats.put("bytes", bytes);
+        stats.put("maxBytes", maxBytes);
+        return stats;
+    }
+
+    public synchronized void resetStats() {
+        hits = 0;
+        misses = 0;
+        puts = 0;
+        evictions = 0;
+    }
+
+    private static long sizeOf(Bitmap bitmap) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            return bitmap.getAllocationByteCount();
+        }
+        return bitmap.getByteCount();
+    }
+}
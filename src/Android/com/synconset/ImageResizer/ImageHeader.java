@@ -0,0 +1,307 @@
+package com.synconset;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Size, format and EXIF orientation of an image, read from the first bytes of
+ * a JPEG, PNG, WebP or GIF stream. Segments that are not needed are skipped,
+ * so only the header is ever held in memory.
+ */
+class ImageHeader {
+    public static final String FORMAT_JPEG = "jpeg";
+    public static final String FORMAT_PNG = "png";
+    public static final String FORMAT_WEBP = "webp";
+    public static final String FORMAT_GIF = "gif";
+
+    private static final int TAG_ORIENTATION = 0x0112;
+    // An APP1 segment can not be larger than this
+    private static final int MAX_SEGMENT_LENGTH = 0xffff;
+
+    public String format;
+    public int width;
+    public int height;
+    public int orientation = 1;
+
+    /**
+     * True if the EXIF orientation turns the image by 90 or 270 degrees.
+     */
+    public boolean isTransposed() {
+        return Orientation.isTransposed(orientation);
+    }
+
+    public int getOrientedWidth() {
+        return isTransposed() ? height : width;
+    }
+
+    public int getOrientedHeight() {
+        return isTransposed() ? width : height;
+    }
+
+    /**
+     * Reads the header of the given stream. The stream is left somewhere
+     * behind the header and should not be used afterwards.
+     *
+     * @param in image stream, should support cheap skip()
+     * @return the header, null if the format is unknown or the header is damaged
+     */
+    public static ImageHeader read(InputStream in) throws IOException {
+        byte[] buffer = new byte[30];
+        try {
+            readFully(in, buffer, 0, 4);
+            ImageHeader header = new ImageHeader();
+            int b0 = buffer[0] & 0xff;
+            int b1 = buffer[1] & 0xff;
+            if (b0 == 0xff && b1 == 0xd8) {
+                header.format = FORMAT_JPEG;
+                return readJpeg(in, buffer, header) ? header : null;
+            } else if (b0 == 0x89 && b1 == 'P' && buffer[2] == 'N' && buffer[3] == 'G') {
+                header.format = FORMAT_PNG;
+                // rest of signature, chunk length, "IHDR", width, height
+                readFully(in, buffer, 4, 20);
+                if (!matches(buffer, 12, "IHDR")) {
+                    return null;
+                }
+                header.width = readInt(buffer, 16, true);
+                header.height = readInt(buffer, 20, true);
+                return header;
+            } else if (b0 == 'R' && b1 == 'I' && buffer[2] == 'F' && buffer[3] == 'F') {
+                header.format = FORMAT_WEBP;
+                return readWebp(in, buffer, header) ? header : null;
+            } else if (b0 == 'G' && b1 == 'I' && buffer[2] == 'F' && buffer[3] == '8') {
+                header.format = FORMAT_GIF;
+                readFully(in, buffer, 4, 6);
+                header.width = readShort(buffer, 6, false);
+                header.height = readShort(buffer, 8, false);
+                return header;
+            }
+            return null;
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    private static boolean readJpeg(InputStream in, byte[] buffer, ImageHeader header) throws IOException {
+        // the first marker follows the SOI read together with the signature
+        int marker = -1;
+        if ((buffer[2] & 0xff) == 0xff) {
+            marker = buffer[3] & 0xff;
+            while (marker == 0xff) {
+                marker = in.read();
+            }
+            if (marker < 0) {
+                throw new EOFException();
+            }
+        }
+        while (true) {
+            if (marker < 0) {
+                marker = nextMarker(in);
+            }
+            if (marker == 0xd9 || marker == 0xda) {
+                // end of image or start of scan without a frame header
+                return false;
+            }
+            if ((marker >= 0xd0 && marker <= 0xd7) || marker == 0x01) {
+                // standalone markers carry no length
+                marker = -1;
+                continue;
+            }
+            readFully(in, buffer, 0, 2);
+            int length = readShort(buffer, 0, true) - 2;
+            if (length < 0) {
+                return false;
+            }
+            if (isStartOfFrame(marker)) {
+                readFully(in, buffer, 0, 5);
+                header.height = readShort(buffer, 1, true);
+                header.width = readShort(buffer, 3, true);
+                return true;
+            } else if (marker == 0xe1 && length > 14) {
+                byte[] segment = new byte[Math.min(length, MAX_SEGMENT_LENGTH)];
+                readFully(in, segment, 0, segment.length);
+                if (matches(segment, 0, "Exif\0\0")) {
+                    header.orientation = readTiffOrientation(segment, 6, segment.length - 6);
+                }
+            } else {
+                skipFully(in, length);
+            }
+            marker = -1;
+        }
+    }
+
+    private static boolean isStartOfFrame(int marker) {
+        // SOF0 - SOF15 except DHT (c4), JPG (c8) and DAC (cc)
+        return marker >= 0xc0 && marker <= 0xcf && marker != 0xc4 && marker != 0xc8 && marker != 0xcc;
+    }
+
+    private static int nextMarker(InputStream in) throws IOException {
+        int b = in.read();
+        // skip garbage until the marker prefix, then fill bytes
+        while (b != 0xff) {
+            if (b < 0) {
+                throw new EOFException();
+            }
+            b = in.read();
+        }
+        while (b == 0xff) {
+            b = in.read();
+        }
+        if (b < 0) {
+            throw new EOFException();
+        }
+        return b;
+    }
+
+    private static boolean readWebp(InputStream in, byte[] buffer, ImageHeader header) throws IOException {
+        // RIFF size, "WEBP", first chunk fourcc and size
+        readFully(in, buffer, 4, 16);
+        if (!matches(buffer, 8, "WEBP")) {
+            return false;
+        }
+        int chunkSize = readInt(buffer, 16, false);
+        if (matches(buffer, 12, "VP8 ")) {
+            // frame tag, start code, 14 bit dimensions
+            readFully(in, buffer, 0, 10);
+            if ((buffer[3] & 0xff) != 0x9d || (buffer[4] & 0xff) != 0x01 || (buffer[5] & 0xff) != 0x2a) {
+                return false;
+            }
+            header.width = readShort(buffer, 6, false) & 0x3fff;
+            header.height = readShort(buffer, 8, false) & 0x3fff;
+            return true;
+        } else if (matches(buffer, 12, "VP8L")) {
+            readFully(in, buffer, 0, 5);
+            if ((buffer[0] & 0xff) != 0x2f) {
+                return false;
+            }
+            int bits = readInt(buffer, 1, false);
+            header.width = (bits & 0x3fff) + 1;
+            header.height = ((bits >> 14) & 0x3fff) + 1;
+            return true;
+        } else if (matches(buffer, 12, "VP8X")) {
+            readFully(in, buffer, 0, 10);
+            boolean hasExif = (buffer[0] & 0x08) != 0;
+            header.width = readInt24(buffer, 4) + 1;
+            header.height = readInt24(buffer, 7) + 1;
+            if (hasExif) {
+                try {
+                    readWebpExif(in, chunkSize - 10, header);
+                } catch (EOFException e) {
+                    // keep the size, the orientation stays at its default
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * The EXIF chunk of an extended WebP follows the image data, walk the
+     * chunk list to it by skipping.
+     */
+    private static void readWebpExif(InputStream in, int remainder, ImageHeader header) throws IOException {
+        byte[] chunkHeader = new byte[8];
+        skipFully(in, remainder + (remainder & 1));
+        while (true) {
+            readFully(in, chunkHeader, 0, 8);
+            int size = readInt(chunkHeader, 4, false);
+            if (size < 0) {
+                return;
+            }
+            if (matches(chunkHeader, 0, "EXIF")) {
+                byte[] exif = new byte[Math.min(size, MAX_SEGMENT_LENGTH)];
+                readFully(in, exif, 0, exif.length);
+                // some encoders keep the JPEG style "Exif\0\0" prefix
+                int offset = matches(exif, 0, "Exif\0\0") ? 6 : 0;
+                header.orientation = readTiffOrientation(exif, offset, exif.length - offset);
+                return;
+            }
+            skipFully(in, size + (size & 1));
+        }
+    }
+
+    /**
+     * Looks up the orientation tag in IFD0 of a TIFF structure.
+     *
+     * @return the orientation, 1 if it is missing or invalid
+     */
+    static int readTiffOrientation(byte[] data, int start, int length) {
+        if (length < 8) {
+            return 1;
+        }
+        boolean bigEndian;
+        if (data[start] == 'M' && data[start + 1] == 'M') {
+            bigEndian = true;
+        } else if (data[start] == 'I' && data[start + 1] == 'I') {
+            bigEndian = false;
+        } else {
+            return 1;
+        }
+        int ifd = readInt(data, start + 4, bigEndian);
+        if (ifd < 8 || ifd + 2 > length) {
+            return 1;
+        }
+        int entries = readShort(data, start + ifd, bigEndian);
+        int entry = start + ifd + 2;
+        for (int i = 0; i < entries && entry + 12 <= start + length; i++, entry += 12) {
+            if (readShort(data, entry, bigEndian) == TAG_ORIENTATION) {
+                int orientation = readShort(data, entry + 8, bigEndian);
+                return (orientation >= 1 && orientation <= 8) ? orientation : 1;
+            }
+        }
+        return 1;
+    }
+
+    private static boolean matches(byte[] data, int offset, String ascii) {
+        if (offset + ascii.length() > data.length) {
+            return false;
+        }
+        for (int i = 0; i < ascii.length(); i++) {
+            if (data[offset + i] != ascii.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static int readShort(byte[] data, int offset, boolean bigEndian) {
+        int a = data[offset] & 0xff;
+        int b = data[offset + 1] & 0xff;
+        return bigEndian ? (a << 8) | b : (b << 8) | a;
+    }
+
+    static int readInt(byte[] data, int offset, boolean bigEndian) {
+        int a = readShort(data, offset, bigEndian);
+        int b = readShort(data, offset + 2, bigEndian);
+        return bigEndian ? (a << 16) | b : (b << 16) | a;
+    }
+
+    private static int readInt24(byte[] data, int offset) {
+        return (data[offset] & 0xff) | ((data[offset + 1] & 0xff) << 8) | ((data[offset + 2] & 0xff) << 16);
+    }
+
+    static void readFully(InputStream in, byte[] buffer, int offset, int length) throws IOException {
+        while (length > 0) {
+            int read = in.read(buffer, offset, length);
+            if (read < 0) {
+                throw new EOFException();
+            }
+            offset += read;
+            length -= read;
+        }
+    }
+
+    static void skipFully(InputStream in, long length) throws IOException {
+        while (length > 0) {
+            long skipped = in.skip(length);
+            if (skipped <= 0) {
+                // skip() may give up early, a read tells us about the end of the stream
+                if (in.read() < 0) {
+                    throw new EOFException();
+                }
+                skipped = 1;
+            }
+            length -= skipped;
+        }
+    }
+}
@@ -13,6 +13,8 @@
 package com.synconset;
 
 import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.content.res.AssetManager;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.BitmapRegionDecoder;
@@ -20,72 +22,233 @@ import android.graphics.Canvas;
 import android.graphics.Matrix;
 import android.graphics.Paint;
 import android.graphics.Rect;
+import android.graphics.RectF;
 import android.net.Uri;
-import android.util.Base64;
+import android.os.Build;
 import android.util.Log;
 
+import com.facebook.cache.disk.DiskCacheConfig;
 import com.facebook.common.executors.CallerThreadExecutor;
+import com.facebook.common.internal.Supplier;
 import com.facebook.common.references.CloseableReference;
 import com.facebook.datasource.DataSource;
 import com.facebook.drawee.backends.pipeline.Fresco;
+import com.facebook.imagepipeline.cache.MemoryCacheParams;
 import com.facebook.imagepipeline.common.ResizeOptions;
 import com.facebook.imagepipeline.core.ImagePipeline;
+import com.facebook.imagepipeline.core.ImagePipelineConfig;
+import com.facebook.imagepipeline.core.ImagePipelineFactory;
 import com.facebook.imagepipeline.datasource.BaseBitmapDataSubscriber;
 import com.facebook.imagepipeline.image.CloseableImage;
 import com.facebook.imagepipeline.request.ImageRequest;
 import com.facebook.imagepipeline.request.ImageRequestBuilder;
 
 import org.apache.cordova.CallbackContext;
+import org.apache.cordova.CordovaArgs;
 import org.apache.cordova.CordovaPlugin;
+import org.apache.cordova.PluginResult;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.io.ByteArrayOutputStream;
+import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import it.sephiroth.android.library.exif2.ExifInterface;
-import it.sephiroth.android.library.exif2.ExifTag;
 
 public class ImageResizePlugin extends CordovaPlugin {
     public static final String IMAGE_DATA_TYPE_BASE64 = "base64Image";
     public static final String IMAGE_DATA_TYPE_URL = "urlImage";
-    public static final String RESIZE_TYPE_FACTOR = "factorResize";
-    public static final String RESIZE_TYPE_MIN_PIXEL = "minPixelResize";
-    public static final String RESIZE_TYPE_MAX_PIXEL = "maxPixelResize";
+    public static final String IMAGE_DATA_TYPE_ARRAY_BUFFER = "arrayBufferImage";
+    public static final String RESIZE_TYPE_FACTOR = ResizeMath.RESIZE_TYPE_FACTOR;
+    public static final String RESIZE_TYPE_MIN_PIXEL = ResizeMath.RESIZE_TYPE_MIN_PIXEL;
+    public static final String RESIZE_TYPE_MAX_PIXEL = ResizeMath.RESIZE_TYPE_MAX_PIXEL;
     public static final String RETURN_BASE64 = "returnBase64";
     public static final String RETURN_URI = "returnUri";
+    public static final String RETURN_ARRAY_BUFFER = "arraybuffer";
     public static final String FORMAT_JPG = "jpg";
     public static final String FORMAT_PNG = "png";
+    public static final String FORMAT_WEBP = "webp";
     public static final String DEFAULT_FORMAT = "jpg";
     public static final String DEFAULT_IMAGE_DATA_TYPE = IMAGE_DATA_TYPE_BASE64;
     public static final String DEFAULT_RESIZE_TYPE = RESIZE_TYPE_FACTOR;
+    public static final String RESIZE_QUALITY_FAST = "fast";
+    public static final String RESIZE_QUALITY_BALANCED = "balanced";
+    public static final String RESIZE_QUALITY_HIGH = "high";
+    public static final String DEFAULT_RESIZE_QUALITY = RESIZE_QUALITY_BALANCED;
+    public static final String RESIZE_ENGINE_CANVAS = "canvas";
+    public static final String RESIZE_ENGINE_JAVA = "java";
+    public static final String FIT_COVER = "cover";
+
+    // Rough peak heap cost of one in-flight resize (a 12MP ARGB_8888 decode)
+    private static final long BATCH_ITEM_MEMORY_ESTIMATE = 12L * 1024 * 1024 * 4;
+    private static final int DEFAULT_CACHE_SIZE = 50 * 1024 * 1024;
+    private static final int DEFAULT_FRESCO_DISK_CACHE_SIZE = 20 * 1024 * 1024;
+    // Sources above this many pixels are decoded tile by tile
+    private static final long TILED_DECODE_PIXEL_THRESHOLD = 40L * 1000 * 1000;
+    // Box a preview decode is sampled down to, and the quality it is encoded at
+    private static final int PREVIEW_SIZE = 256;
+    private static final int PREVIEW_QUALITY = 60;
+    // Effort of lossless WebP, from 0 for the fastest to 100 for the smallest
+    private static final int DEFAULT_EFFORT = 75;
+    // Doublings of the sample size a resize may take under memory pressure
+    private static final int MAX_EXTRA_SAMPLE_STEPS = 2;
+
+    private static final int DEFAULT_MAX_QUEUED = 64;
+    private static final String ERROR_BUSY = "busy";
+    private static final String ERROR_CANCELLED = "cancelled";
+    private static final String ANDROID_ASSET = "/android_asset/";
+    // Result fields kept with a cached result, the file and its size aside
+    private static final String[] CACHED_FIELDS = {"quality", "attempts", "fitsMaxBytes", "hash", "placeholder"};
+    // Journals of finished batches no page came back for are kept this long
+    private static final long JOURNAL_MAX_AGE = 7L * 24 * 60 * 60 * 1000;
+
+    private ResizeResultCache resultCache;
+    private ImagePipeline imagePipeline;
+    private ResizeExecutor resizeExecutor;
+    private MemoryGovernor memoryGovernor;
+    private final ResizeMetrics metrics = new ResizeMetrics();
+    private volatile boolean statsEnabled;
+    private final ConcurrentHashMap<String, ResizeImages> batches = new ConcurrentHashMap<String, ResizeImages>();
+    private boolean jobsResumed;
 
     @Override
-    public boolean execute(String action, JSONArray data, CallbackContext callbackContext) throws JSONException {
-        if (!Fresco.hasBeenInitialized()) {
-            Context context = this.cordova.getActivity().getApplicationContext();
-            Fresco.initialize(context);
+    protected void pluginInitialize() {
+        if (preferences != null) {
+            statsEnabled = preferences.getBoolean("ImageResizerStats", false);
         }
-        JSONObject params = data.getJSONObject(0);
+        // the journals may be long, they are not read on the UI thread
+        cordova.getThreadPool().execute(new Runnable() {
+            @Override
+            public void run() {
+                resumeJobs();
+            }
+        });
+    }
+
+    @Override
+    public boolean execute(String action, CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+        // getStats and the like come without arguments
+        JSONObject params = args.isNull(0) ? new JSONObject() : args.getJSONObject(0);
         if (action.equals("resizeImage")) {
-            ResizeImage resizeImage = new ResizeImage(params, callbackContext);
-            cordova.getThreadPool().execute(resizeImage);
+            ResizeImage resizeImage = withImageBytes(new ResizeImage(params, callbackContext), args);
+            submit(resizeImage, ResizeExecutor.PRIORITY_VISIBLE, true);
+            return true;
+        } else if (action.equals("resizeImages")) {
+            ResizeImages resizeImages = new ResizeImages(params, callbackContext);
+            if (params.optBoolean("journal")) {
+                JSONObject options = params.optJSONObject("options");
+                if (resizeImages.requestId == null || options == null || options.optInt("storeImage") <= 0) {
+                    callbackContext.error("A journaled batch needs a requestId and storeImage");
+                    return true;
+                }
+                try {
+                    resizeImages.journal = ResizeJournal.create(getJournalDirectory(), params);
+                } catch (IOException e) {
+                    Log.d("PLUGIN", e.getMessage());
+                    callbackContext.error(e.getMessage());
+                    return true;
+                }
+            }
+            if (resizeImages.requestId != null) {
+                batches.put(resizeImages.requestId, resizeImages);
+            }
+            resizeImages.run();
+            return true;
+        } else if (action.equals("getResizeJobs")) {
+            // the journals may still be read back, that is waited for off the WebView thread
+            final CallbackContext jobsCallbackContext = callbackContext;
+            cordova.getThreadPool().execute(new Runnable() {
+                @Override
+                public void run() {
+                    resumeJobs();
+                    JSONArray jobs = new JSONArray();
+                    try {
+                        for (ResizeImages batch : batches.values()) {
+                            if (batch.journal != null) {
+                                jobs.put(batch.progress());
+                            }
+                        }
+                    } catch (JSONException e) {
+                        Log.d("PLUGIN", e.getMessage());
+                        jobsCallbackContext.error(e.getMessage());
+                        return;
+                    }
+                    jobsCallbackContext.success(jobs);
+                }
+            });
+            return true;
+        } else if (action.equals("reconnectResize")) {
+            final String requestId = params.getString("requestId");
+            final CallbackContext reconnectCallbackContext = callbackContext;
+            cordova.getThreadPool().execute(new Runnable() {
+                @Override
+                public void run() {
+                    resumeJobs();
+                    ResizeImages batch = batches.get(requestId);
+                    if (batch == null || batch.journal == null) {
+                        reconnectCallbackContext.error("unknown request");
+                        return;
+                    }
+                    try {
+                        batch.reconnect(reconnectCallbackContext);
+                    } catch (JSONException e) {
+                        Log.d("PLUGIN", e.getMessage());
+                        reconnectCallbackContext.error(e.getMessage());
+                    }
+                }
+            });
             return true;
         } else if (action.equals("imageSize")) {
-            GetImageSize imageSize = new GetImageSize(params, callbackContext);
-            cordova.getThreadPool().execute(imageSize);
+            GetImageSize imageSize = withImageBytes(new GetImageSize(params, callbackContext), args);
+            submit(imageSize, ResizeExecutor.PRIORITY_VISIBLE, true);
             return true;
         } else if (action.equals("storeImage")) {
-            StoreImage storeImage = new StoreImage(params, callbackContext);
-            cordova.getThreadPool().execute(storeImage);
+            StoreImage storeImage = withImageBytes(new StoreImage(params, callbackContext), args);
+            submit(storeImage, ResizeExecutor.PRIORITY_VISIBLE, true);
+            return true;
+        } else if (action.equals("getPoolStats")) {
+            callbackContext.success(BitmapPool.shared().getStats());
+            return true;
+        } else if (action.equals("getStats")) {
+            JSONObject stats = metrics.toJson();
+            stats.put("enabled", statsEnabled);
+            stats.put("queued", getResizeExecutor().queued());
+            stats.put("pool", BitmapPool.shared().getStats());
+            stats.put("memory", getMemoryGovernor().toJson());
+            callbackContext.success(stats);
+            return true;
+        } else if (action.equals("resetStats")) {
+            if (params.has("enabled")) {
+                statsEnabled = params.getBoolean("enabled");
+            }
+            metrics.reset();
+            BitmapPool.shared().resetStats();
+            getMemoryGovernor().resetStats();
+            callbackContext.success();
+            return true;
+        } else if (action.equals("cancelResize")) {
+            String requestId = params.getString("requestId");
+            JSONObject res = new JSONObject();
+            res.put("requestId", requestId);
+            res.put("cancelled", cancel(requestId));
+            callbackContext.success(res);
             return true;
         } else {
             Log.d("PLUGIN", "unknown action");
@@ -93,327 +256,2317 @@ public class ImageResizePlugin extends CordovaPlugin {
         }
     }
 
-    private class ImageTools {
+    /**
+     * Whether a source is read on the device, anything else is fetched.
+     */
+    private static boolean isLocal(Uri uri) {
+        String scheme = uri.getScheme();
+        return "file".equals(scheme) || "content".equals(scheme) || "android.resource".equals(scheme);
+    }
+
+    /**
+     * The encoder of an output format, JPEG for anything else. WebP is lossy
+     * unless the lossless option is set, which needs Android 11, before that
+     * WebP is lossy throughout.
+     */
+    private static Bitmap.CompressFormat compressFormatOf(JSONObject params, String format) {
+        if (FORMAT_PNG.equals(format)) {
+            return Bitmap.CompressFormat.PNG;
+        } else if (FORMAT_WEBP.equals(format)) {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
+                return params.optBoolean("lossless") ? Bitmap.CompressFormat.WEBP_LOSSLESS : Bitmap.CompressFormat.WEBP_LOSSY;
+            }
+            return Bitmap.CompressFormat.WEBP;
+        }
+        return Bitmap.CompressFormat.JPEG;
+    }
+
+    /**
+     * The value handed to the encoder with the format. Lossless WebP reads it
+     * as the effort, from 0 for the fastest encode to 100 for the smallest
+     * file, and the old WebP encoder comes closest to lossless at 100. PNG
+     * ignores it.
+     */
+    private static int encoderQuality(JSONObject params, String format) throws JSONException {
+        if (FORMAT_WEBP.equals(format) && params.optBoolean("lossless")) {
+            return Build.VERSION.SDK_INT >= Build.VERSION_CODES.R ? params.optInt("effort", DEFAULT_EFFORT) : 100;
+        }
+        return params.getInt("quality");
+    }
+
+    /**
+     * Whether the quality of a format trades size, for the maxBytes search.
+     */
+    private static boolean isLossy(JSONObject params, String format) {
+        return !FORMAT_PNG.equals(format) && !(FORMAT_WEBP.equals(format) && params.optBoolean("lossless"));
+    }
+
+    private static boolean isJpeg(String format) {
+        return !FORMAT_PNG.equals(format) && !FORMAT_WEBP.equals(format);
+    }
+
+    /**
+     * File name extension of an output format.
+     */
+    private static String extensionOf(String format) {
+        if (FORMAT_PNG.equals(format)) {
+            return ".png";
+        } else if (FORMAT_WEBP.equals(format)) {
+            return ".webp";
+        } else if ("jpeg".equals(format)) {
+            return ".jpeg";
+        }
+        return ".jpg";
+    }
+
+    /**
+     * Hands image data sent as an ArrayBuffer, the second argument, to the
+     * request. It is decoded from these bytes directly.
+     */
+    private <T extends ImageTools> T withImageBytes(T tools, CordovaArgs args) throws JSONException {
+        if (IMAGE_DATA_TYPE_ARRAY_BUFFER.equals(tools.imageDataType)) {
+            tools.view = SourceView.wrap(args.getArrayBuffer(1));
+        }
+        return tools;
+    }
+
+    /**
+     * Queues work on the plugin's executor. Its callback is wrapped so that the
+     * request stays cancellable until the result has been sent, a full queue is
+     * answered with "busy".
+     */
+    private void submit(final ImageTools tools, int defaultPriority, boolean bounded) {
+        ResizeExecutor executor = getResizeExecutor();
+        int priority = ResizeExecutor.priorityOf(tools.params.optString("priority", null), defaultPriority);
+        if (statsEnabled || tools.params.optBoolean("timings")) {
+            tools.timer = new ResizeMetrics.Timer();
+        }
+        ResizeExecutor.Task task = executor.newTask(tools.requestId, priority, new Runnable() {
+            @Override
+            public void run() {
+                tools.lap(ResizeMetrics.STAGE_QUEUE);
+                try {
+                    ((Runnable) tools).run();
+                } catch (RuntimeException e) {
+                    Log.e("ImageResizer", "resize failed", e);
+                    tools.callbackContext.error(String.valueOf(e.getMessage()));
+                } finally {
+                    tools.closeView();
+                }
+            }
+        });
+        CallbackContext target = tools.callbackContext;
+        tools.callbackContext = new TaskCallbackContext(target, task, tools);
+        tools.task = task;
+        task.addCancelHook(tools);
+        if (!executor.execute(task, bounded)) {
+            target.error(ERROR_BUSY);
+        }
+    }
+
+    /**
+     * Cancels a request or a whole batch.
+     *
+     * @return true if anything was still pending
+     */
+    private boolean cancel(String requestId) {
+        ResizeImages batch = batches.remove(requestId);
+        if (batch != null) {
+            batch.cancel();
+        }
+        return getResizeExecutor().cancel(requestId) > 0 || batch != null;
+    }
+
+    private synchronized ResizeExecutor getResizeExecutor() {
+        if (resizeExecutor == null) {
+            int threads = Runtime.getRuntime().availableProcessors();
+            int maxQueued = DEFAULT_MAX_QUEUED;
+            if (preferences != null) {
+                threads = preferences.getInteger("ImageResizerThreads", threads);
+                maxQueued = preferences.getInteger("ImageResizerMaxQueued", maxQueued);
+            }
+            resizeExecutor = new ResizeExecutor(Math.max(1, threads), maxQueued);
+        }
+        return resizeExecutor;
+    }
+
+    /**
+     * The memory budget of all running requests, half the heap unless the
+     * ImageResizerMemoryBudget preference sets it in bytes. The bitmap pool
+     * and Fresco's caches live outside of it.
+     */
+    private synchronized MemoryGovernor getMemoryGovernor() {
+        if (memoryGovernor == null) {
+            long budget = Runtime.getRuntime().maxMemory() / 2;
+            if (preferences != null) {
+                budget = preferences.getInteger("ImageResizerMemoryBudget", (int) Math.min(Integer.MAX_VALUE, budget));
+            }
+            memoryGovernor = new MemoryGovernor(budget);
+        }
+        return memoryGovernor;
+    }
+
+    /**
+     * Picks up the journaled batches of an earlier process, once. Batches
+     * that were still running go on, finished ones wait for a page to
+     * collect their results.
+     */
+    private synchronized void resumeJobs() {
+        if (jobsResumed) {
+            return;
+        }
+        jobsResumed = true;
+        for (ResizeJournal journal : ResizeJournal.openAll(getJournalDirectory(), JOURNAL_MAX_AGE)) {
+            String requestId = journal.requestId();
+            if (requestId == null || batches.containsKey(requestId)) {
+                journal.close();
+                continue;
+            }
+            try {
+                ResizeImages batch = new ResizeImages(journal);
+                batches.put(requestId, batch);
+                batch.run();
+            } catch (JSONException e) {
+                Log.d("PLUGIN", e.getMessage());
+                journal.delete();
+            }
+        }
+    }
+
+    private File getJournalDirectory() {
+        return new File(cordova.getActivity().getFilesDir(), "imageResizerJobs");
+    }
+
+    /**
+     * Whether every output of a stored result is still there, a batch that
+     * resumes resizes an item again otherwise.
+     */
+    private static boolean outputsExist(JSONObject result) {
+        JSONArray images = result.optJSONArray("images");
+        if (images == null) {
+            images = new JSONArray();
+            images.put(result);
+        }
+        for (int i = 0; i < images.length(); i++) {
+            JSONObject image = images.optJSONObject(i);
+            String filePath = image != null ? image.optString("filePath", "") : "";
+            if (!filePath.startsWith("file:")) {
+                return false;
+            }
+            try {
+                if (!new File(new URI(filePath)).exists()) {
+                    return false;
+                }
+            } catch (URISyntaxException e) {
+                return false;
+            } catch (IllegalArgumentException e) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void onReset() {
+        // the page is gone, journaled batches keep their results for the next one
+        for (ResizeImages batch : batches.values()) {
+            if (batch.journal != null) {
+                batch.detach();
+            }
+        }
+    }
+
+    @Override
+    public void onDestroy() {
+        // journaled batches stop here and resume from their journals
+        for (ResizeImages batch : batches.values()) {
+            if (batch.journal != null) {
+                batch.stop();
+            }
+        }
+        synchronized (this) {
+            if (resizeExecutor != null) {
+                resizeExecutor.shutdown();
+                resizeExecutor = null;
+            }
+        }
+        BitmapPool.shared().clear();
+    }
+
+    @Override
+    public void onPause(boolean multitasking) {
+        synchronized (this) {
+            if (resultCache != null) {
+                resultCache.flush();
+            }
+        }
+    }
+
+    private class ImageTools implements ResizeExecutor.Cancellable {
         protected JSONObject params;
         protected CallbackContext callbackContext;
         protected String format;
         protected String imageData;
         protected String imageDataType;
+        protected String requestId;
+        protected ResizeExecutor.Task task;
+        // mapped source file or ArrayBuffer bytes, every read of the source goes through it once set
+        protected SourceView view;
+        // stage timings, null unless stats or timings are enabled
+        protected ResizeMetrics.Timer timer;
+        // additional fields for the result, created on first use
+        private JSONObject extras;
 
         public ImageTools(JSONObject params, CallbackContext callbackContext) throws JSONException {
             this.params = params;
             this.callbackContext = callbackContext;
-            imageData = params.getString("data");
             imageDataType = DEFAULT_IMAGE_DATA_TYPE;
             if (params.has("imageDataType")) {
                 imageDataType = params.getString("imageDataType");
             }
+            // ArrayBuffer data comes as a separate argument, see withImageBytes()
+            imageData = IMAGE_DATA_TYPE_ARRAY_BUFFER.equals(imageDataType) ? null : params.getString("data");
             format = DEFAULT_FORMAT;
             if (params.has("format")) {
                 format = params.getString("format");
             }
+            requestId = params.optString("requestId", null);
+        }
+
+        protected boolean isCancelled() {
+            return task != null && task.isCancelled();
+        }
+
+        /**
+         * Called when the request is cancelled, answers it right away. Work still
+         * running finds out through isCancelled() and its result is dropped.
+         */
+        @Override
+        public void cancel() {
+            callbackContext.error(ERROR_CANCELLED);
+        }
+
+        protected Bitmap getBitmap(String imageData, String imageDataType, BitmapFactory.Options options) throws IOException, URISyntaxException {
+            Bitmap bmp;
+            try {
+                bmp = decodeBitmap(imageData, imageDataType, options);
+            } catch (IllegalArgumentException e) {
+                if (options.inBitmap == null) {
+                    throw e;
+                }
+                // the pooled bitmap did not fit after all
+                BitmapPool.shared().abandonDecode(options);
+                bmp = decodeBitmap(imageData, imageDataType, options);
+            }
+            if (bmp == null) {
+                BitmapPool.shared().abandonDecode(options);
+            }
+            options.inBitmap = null;
+            return bmp;
+        }
+
+        private Bitmap decodeBitmap(String imageData, String imageDataType, BitmapFactory.Options options) throws IOException, URISyntaxException {
+            Bitmap bmp;
+            if (view != null) {
+                bmp = BitmapFactory.decodeStream(view.openStream(), null, options);
+            } else if (imageDataType.equals(IMAGE_DATA_TYPE_BASE64)) {
+                // decode while reading instead of materializing the whole blob
+                InputStream in = new Base64StringInputStream(imageData);
+                try {
+                    bmp = BitmapFactory.decodeStream(in, null, options);
+                } finally {
+                    in.close();
+                }
+            } else {
+                URI uri = new URI(imageData);
+                File imageFile = new File(uri);
+                bmp = BitmapFactory.decodeFile(imageFile.getAbsolutePath(), options);
+            }
+            return bmp;
+        }
+
+        /**
+         * Opens the image data as a stream without decoding or loading all of it.
+         */
+        protected InputStream openImageStream(String imageData, String imageDataType) throws IOException, URISyntaxException {
+            if (view != null) {
+                return view.openStream();
+            }
+            if (imageDataType.equals(IMAGE_DATA_TYPE_BASE64)) {
+                return new Base64StringInputStream(imageData);
+            }
+            File imageFile = new File(new URI(imageData));
+            return new BufferedInputStream(new FileInputStream(imageFile), 8192);
+        }
+
+        /**
+         * Maps a file source so that the following reads share one view of it.
+         */
+        protected void openView(File imageFile) throws IOException {
+            view = SourceView.open(imageFile);
+        }
+
+        /**
+         * Opens a local source, file://, file:///android_asset/, content:// or
+         * android.resource://, as a view. Content and assets are read through
+         * their descriptors, nothing is copied to a file first.
+         */
+        protected void openView(Uri uri) throws IOException {
+            String scheme = uri.getScheme();
+            String path = uri.getPath();
+            if ("file".equals(scheme) && path != null && path.startsWith(ANDROID_ASSET)) {
+                view = openAsset(path.substring(ANDROID_ASSET.length()));
+            } else if ("file".equals(scheme)) {
+                view = SourceView.open(new File(path));
+            } else {
+                AssetFileDescriptor descriptor = cordova.getActivity().getContentResolver().openAssetFileDescriptor(uri, "r");
+                if (descriptor == null) {
+                    throw new FileNotFoundException("Could not open " + uri);
+                }
+                view = SourceView.open(descriptor);
+            }
+        }
+
+        private SourceView openAsset(String name) throws IOException {
+            AssetManager assets = cordova.getActivity().getAssets();
+            try {
+                return SourceView.open(assets.openFd(name));
+            } catch (FileNotFoundException e) {
+                // compressed in the APK, there is no descriptor to map
+                return SourceView.read(assets.open(name));
+            }
+        }
+
+        protected void closeView() {
+            if (view != null) {
+                view.close();
+            }
+        }
+
+        /**
+         * Charges the time since the last lap to the given stage.
+         */
+        protected void lap(int stage) {
+            if (timer != null) {
+                timer.lap(stage);
+            }
+        }
+
+        protected JSONObject extras() {
+            if (extras == null) {
+                extras = new JSONObject();
+            }
+            return extras;
+        }
+
+        /**
+         * Sends a successful result, together with any extras collected on the way.
+         */
+        protected void sendResult(JSONObject res) throws JSONException {
+            addExtras(res);
+            callbackContext.success(res);
+        }
+
+        /**
+         * Sends encoded images as ArrayBuffers, followed by the result fields
+         * in a last part of the same message, so the success callback gets
+         * (arrayBuffer, ..., result).
+         */
+        protected void sendBinaryResult(byte[][] images, JSONObject res) throws JSONException {
+            addExtras(res);
+            List<PluginResult> parts = new ArrayList<PluginResult>(images.length + 1);
+            for (byte[] image : images) {
+                parts.add(new PluginResult(PluginResult.Status.OK, image));
+            }
+            parts.add(new PluginResult(PluginResult.Status.OK, res));
+            callbackContext.sendPluginResult(new PluginResult(PluginResult.Status.OK, parts));
+        }
+
+        /**
+         * Sends a result ahead of the final one and keeps the callback for it,
+         * as JSON or, with an image, as (arrayBuffer, result).
+         */
+        protected void sendProgress(byte[] image, JSONObject res) {
+            PluginResult result;
+            if (image != null) {
+                List<PluginResult> parts = new ArrayList<PluginResult>(2);
+                parts.add(new PluginResult(PluginResult.Status.OK, image));
+                parts.add(new PluginResult(PluginResult.Status.OK, res));
+                result = new PluginResult(PluginResult.Status.OK, parts);
+            } else {
+                result = new PluginResult(PluginResult.Status.OK, res);
+            }
+            result.setKeepCallback(true);
+            callbackContext.sendPluginResult(result);
+        }
+
+        private void addExtras(JSONObject res) throws JSONException {
+            if (timer != null && params.optBoolean("timings")) {
+                res.put("timings", timer.toJson());
+            }
+            if (extras != null) {
+                Iterator<String> keys = extras.keys();
+                while (keys.hasNext()) {
+                    String key = keys.next();
+                    res.put(key, extras.get(key));
+                }
+            }
+        }
+
+        /**
+         * Reads the header of the image data.
+         *
+         * @return the header, null for formats the probe does not know
+         */
+        protected ImageHeader readHeader() throws IOException, URISyntaxException {
+            InputStream in = openImageStream(imageData, imageDataType);
+            try {
+                if (timer != null) {
+                    timer.bytesIn(view != null ? view.length() : in.available());
+                }
+                return ImageHeader.read(in);
+            } finally {
+                in.close();
+                lap(ResizeMetrics.STAGE_HEADER);
+            }
+        }
+
+        protected void storeImage(JSONObject params, String format, Bitmap bmp, CallbackContext callbackContext) throws JSONException, IOException, URISyntaxException {
+            sendResult(writeImage(params, format, bmp));
+        }
+
+        //James Kong 2017-01-27
+        protected void storeImageWithExif(JSONObject params, String format, Bitmap bmp, ExifInterface exif, CallbackContext callbackContext) throws JSONException, IOException, URISyntaxException {
+            sendResult(writeImageWithExif(params, format, bmp, exif));
+        }
+
+        /**
+         * Stores the bitmap.
+         *
+         * @return the result fields of the stored image
+         */
+        protected JSONObject writeImage(JSONObject params, String format, Bitmap bmp) throws JSONException, IOException, URISyntaxException {
+            QualitySearch.Result searched = searchQuality(params, format, bmp);
+            StoredImageWriter writer = openWriter(params);
+            try {
+                if (searched != null) {
+                    searched.encoded.writeTo(writer.stream());
+                } else {
+                    bmp.compress(compressFormatOf(params, format), encoderQuality(params, format),
+                            writer.stream());
+                    lap(ResizeMetrics.STAGE_ENCODE);
+                }
+                JSONObject res = commitImage(writer, params, format, bmp);
+                putSearchResult(res, searched);
+                return res;
+            } finally {
+                writer.abort();
+                if (searched != null) {
+                    searched.encoded.release();
+                }
+            }
+        }
+
+        protected JSONObject writeImageWithExif(JSONObject params, String format, Bitmap bmp, ExifInterface exif) throws JSONException, IOException, URISyntaxException {
+            int quality = params.getInt("quality");
+            QualitySearch.Result searched = searchQuality(params, format, bmp);
+            StoredImageWriter writer = openWriter(params);
+            try {
+                if (searched == null) {
+                    exif.writeExif(bmp, writer.stream(), quality);
+                    lap(ResizeMetrics.STAGE_ENCODE);
+                    return commitImage(writer, params, format, bmp);
+                }
+                exif.writeExif(searched.encoded.toByteArray(), writer.stream());
+                if (writer.size() > params.getLong("maxBytes")) {
+                    // the EXIF data tipped it over the budget, the image goes without
+                    writer.abort();
+                    writer = openWriter(params);
+                    searched.encoded.writeTo(writer.stream());
+                }
+                JSONObject res = commitImage(writer, params, format, bmp);
+                putSearchResult(res, searched);
+                return res;
+            } finally {
+                writer.abort();
+                if (searched != null) {
+                    searched.encoded.release();
+                }
+            }
+        }
+
+        /**
+         * Looks for the highest quality up to the requested one that encodes
+         * into maxBytes. PNG and lossless WebP have no quality to trade and are
+         * encoded as usual.
+         *
+         * @return the search result, its encoded image is released by the
+         * caller, null without maxBytes
+         */
+        protected QualitySearch.Result searchQuality(JSONObject params, String format, Bitmap bmp) throws JSONException {
+            long maxBytes = params.optLong("maxBytes");
+            if (maxBytes <= 0 || !isLossy(params, format)) {
+                return null;
+            }
+            QualitySearch.Result searched = QualitySearch.search(new BitmapUtil.BitmapEncoder(bmp, compressFormatOf(params, format), false),
+                    params.getInt("quality"), maxBytes);
+            lap(ResizeMetrics.STAGE_ENCODE);
+            return searched;
+        }
+
+        protected void putSearchResult(JSONObject res, QualitySearch.Result searched) throws JSONException {
+            if (searched != null) {
+                res.put("quality", searched.quality);
+                res.put("attempts", searched.attempts);
+                res.put("fitsMaxBytes", searched.fits);
+            }
+        }
+
+        /**
+         * Opens a writer in the outputDirectory, java.io.tmpdir unless given as
+         * a path or a file URL.
+         */
+        private StoredImageWriter openWriter(JSONObject params) throws IOException, URISyntaxException {
+            String outputDirectory = params.optString("outputDirectory", "");
+            File directory;
+            if (outputDirectory.length() == 0) {
+                directory = new File(System.getProperty("java.io.tmpdir"));
+            } else if (outputDirectory.startsWith("file:")) {
+                directory = new File(new URI(outputDirectory));
+            } else {
+                directory = new File(outputDirectory);
+            }
+            String naming = params.optString("naming", StoredImageWriter.NAMING_FILENAME);
+            // sources without a file have no request key, their content names them instead
+            boolean hashContent = StoredImageWriter.NAMING_CONTENT_HASH.equals(naming)
+                    || (StoredImageWriter.NAMING_REQUEST_KEY.equals(naming) && sourceFile() == null);
+            return StoredImageWriter.open(directory, hashContent);
+        }
+
+        private File sourceFile() {
+            return view != null ? view.getFile() : null;
+        }
+
+        /**
+         * Moves the written image to its name.
+         *
+         * @return the result fields with the URL of the image
+         */
+        private JSONObject commitImage(StoredImageWriter writer, JSONObject params, String format, Bitmap bmp) throws JSONException, IOException {
+            File file = commitFile(writer, params, format);
+            JSONObject res = new JSONObject();
+            res.put("filePath", Uri.fromFile(file).toString());
+            res.put("bytes", file.length());
+            res.put("width", bmp.getWidth());
+            res.put("height", bmp.getHeight());
+            return res;
+        }
+
+        /**
+         * Stores a copy of a cached result where and as the request names it,
+         * the cache keeps its own file.
+         */
+        protected JSONObject storeCached(JSONObject params, ResizeResultCache.Entry entry) throws JSONException, IOException, URISyntaxException {
+            StoredImageWriter writer = openWriter(params);
+            try {
+                InputStream in = new FileInputStream(entry.file);
+                try {
+                    byte[] buffer = new byte[8192];
+                    int count;
+                    while ((count = in.read(buffer)) > 0) {
+                        writer.stream().write(buffer, 0, count);
+                    }
+                } finally {
+                    in.close();
+                }
+                File file = commitFile(writer, params, format);
+                JSONObject res = new JSONObject();
+                res.put("filePath", Uri.fromFile(file).toString());
+                res.put("bytes", file.length());
+                res.put("width", entry.width);
+                res.put("height", entry.height);
+                return res;
+            } finally {
+                writer.abort();
+            }
+        }
+
+        private File commitFile(StoredImageWriter writer, JSONObject params, String format) throws IOException {
+            String naming = params.optString("naming", StoredImageWriter.NAMING_FILENAME);
+            String name;
+            if (StoredImageWriter.NAMING_REQUEST_KEY.equals(naming) && sourceFile() != null) {
+                name = ResizeResultCache.key(sourceFile(), params);
+            } else if (writer.hashesContent()) {
+                name = writer.contentHash();
+            } else {
+                name = params.optString("filename", "");
+                if (name.length() == 0) {
+                    // blank names of concurrent requests must not meet in one file
+                    name = UUID.randomUUID().toString();
+                }
+            }
+            String extension = extensionOf(format);
+            if (!name.toLowerCase(Locale.US).endsWith(extension)) {
+                name += extension;
+            }
+            File file = writer.commit(name, !StoredImageWriter.NAMING_FILENAME.equals(naming));
+            lap(ResizeMetrics.STAGE_WRITE);
+            if (timer != null) {
+                timer.bytesOut(file.length());
+            }
+            return file;
+        }
+    }
+
+    private class GetImageSize extends ImageTools implements Runnable {
+        public GetImageSize(JSONObject params, CallbackContext callbackContext) throws JSONException {
+            super(params, callbackContext);
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (view == null && !imageDataType.equals(IMAGE_DATA_TYPE_BASE64)) {
+                    openView(Uri.parse(imageData));
+                }
+                ImageHeader header = readHeader();
+                JSONObject res = new JSONObject();
+                if (header != null) {
+                    res.put("width", header.width);
+                    res.put("height", header.height);
+                    res.put("orientedWidth", header.getOrientedWidth());
+                    res.put("orientedHeight", header.getOrientedHeight());
+                    res.put("orientation", header.orientation);
+                    res.put("format", header.format);
+                } else {
+                    // not a format the header probe knows, let the platform decoder have a look
+                    BitmapFactory.Options options = new BitmapFactory.Options();
+                    options.inJustDecodeBounds = true;
+                    getBitmap(imageData, imageDataType, options);
+                    res.put("width", options.outWidth);
+                    res.put("height", options.outHeight);
+                    res.put("orientedWidth", options.outWidth);
+                    res.put("orientedHeight", options.outHeight);
+                    res.put("orientation", 1);
+                }
+                sendResult(res);
+            } catch (JSONException e) {
+                callbackContext.error(e.getMessage());
+            } catch (IOException e) {
+                Log.d("PLUGIN", e.getMessage());
+                callbackContext.error(e.getMessage());
+            } catch (URISyntaxException e) {
+                Log.d("PLUGIN", e.getMessage());
+                callbackContext.error(e.getMessage());
+            }
+        }
+    }
+
+    private class StoreImage extends ImageTools implements Runnable {
+        public StoreImage(JSONObject params, CallbackContext callbackContext) throws JSONException {
+            super(params, callbackContext);
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (view == null && !imageDataType.equals(IMAGE_DATA_TYPE_BASE64)) {
+                    openView(Uri.parse(imageData));
+                }
+                ImageHeader header = readHeader();
+                // the decoded image and the encoded file at once
+                long bytes = header != null ? (long) header.width * header.height * 9 / 2 : 0;
+                MemoryGovernor governor = getMemoryGovernor();
+                if (!governor.acquire(bytes, task)) {
+                    return;
+                }
+                try {
+                    decodeAndStore(header);
+                } catch (OutOfMemoryError e) {
+                    governor.recordOutOfMemory();
+                    BitmapPool.shared().clear();
+                    callbackContext.error("Out of memory");
+                } finally {
+                    governor.release(bytes);
+                }
+            } catch (JSONException e) {
+                Log.d("PLUGIN", e.getMessage());
+                callbackContext.error(e.getMessage());
+            } catch (IOException e) {
+                Log.d("PLUGIN", e.getMessage());
+                callbackContext.error(e.getMessage());
+            } catch (URISyntaxException e) {
+                Log.d("PLUGIN", e.getMessage());
+                callbackContext.error(e.getMessage());
+            }
+        }
+
+        private void decodeAndStore(ImageHeader header) throws JSONException, IOException, URISyntaxException {
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            if (header != null) {
+                BitmapPool.shared().prepareDecode(options, header.width, header.height);
+            }
+            Bitmap bmp = getBitmap(imageData, imageDataType, options);
+            if (bmp == null) {
+                throw new IOException("The image file could not be opened.");
+            }
+            lap(ResizeMetrics.STAGE_DECODE);
+            if (timer != null) {
+                timer.bitmapBytes(bmp.getByteCount());
+            }
+            try {
+                this.storeImage(params, format, bmp, callbackContext);
+            } finally {
+                BitmapPool.shared().put(bmp);
+            }
+        }
+    }
+
+    private class ResizeImage extends ImageTools implements Runnable {
+        private volatile DataSource<CloseableReference<CloseableImage>> dataSource;
+        private final String resizeQuality;
+        private final String resizeEngine;
+        private final int resizeKernel;
+        // outputs of the sizes option, largest first, null for a single output
+        private List<Rendition> renditions;
+        // stored pixels of the crop, left, top, right and bottom, null for the whole image
+        private int[] region;
+
+        public ResizeImage(JSONObject params, CallbackContext callbackContext) throws JSONException {
+            super(params, callbackContext);
+            resizeQuality = params.optString("resizeQuality", DEFAULT_RESIZE_QUALITY);
+            resizeEngine = params.optString("resizeEngine", RESIZE_ENGINE_CANVAS);
+            resizeKernel = Resampler.kernelOf(params.optString("resizeKernel", null), Resampler.KERNEL_LANCZOS3);
+        }
+
+        /**
+         * Whether the plain Java resampler replaces the canvas, its fork/join
+         * pool needs Lollipop.
+         */
+        private boolean useResampler() {
+            return RESIZE_ENGINE_JAVA.equals(resizeEngine) && Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP;
+        }
+
+        /**
+         * Filter that takes the sampled decode to the target size: nearest
+         * neighbour for "fast", bilinear for "balanced" and an area average for
+         * "high".
+         */
+        private int getFilter() {
+            if (RESIZE_QUALITY_FAST.equals(resizeQuality)) {
+                return BitmapUtil.FILTER_NEAREST;
+            } else if (RESIZE_QUALITY_HIGH.equals(resizeQuality)) {
+                return BitmapUtil.FILTER_AREA;
+            }
+            return BitmapUtil.FILTER_BILINEAR;
+        }
+
+        @Override
+        public void cancel() {
+            DataSource<CloseableReference<CloseableImage>> running = dataSource;
+            if (running != null) {
+                // stops the fetch and the decode, no result gets delivered
+                running.close();
+            }
+            super.cancel();
+        }
+
+        @Override
+        public void run() {
+            try {
+                File imageFile = null;
+                // ArrayBuffer data comes with its view already, there is no file to map or cache by
+                if (view == null) {
+                    Uri uri = Uri.parse(imageData);
+                    if (!isLocal(uri)) {
+                        // nothing to map, e.g. a remote image, Fresco fetches and decodes it
+                        fetchWithFresco(uri);
+                        return;
+                    }
+
+                    // the result cache knows files only, it tells changes apart by their dates
+                    if ("file".equals(uri.getScheme()) && !uri.getPath().startsWith(ANDROID_ASSET)) {
+                        imageFile = new File(uri.getPath());
+                    }
+                    if (imageFile != null && params.optBoolean("cache") && params.optInt("storeImage") > 0 && !params.has("sizes")) {
+                        ResizeResultCache cache = getResultCache();
+                        String key = ResizeResultCache.key(imageFile, params);
+                        ResizeResultCache.Entry entry = cache.get(key);
+                        // cached without the hash or placeholder asked for now, they come with a fresh resize
+                        if (entry != null && (params.optBoolean("computeHash") && !entry.fields.has("hash")
+                                || params.optBoolean("computePlaceholder") && !entry.fields.has("placeholder"))) {
+                            entry = null;
+                        }
+                        // outputs placed or named by the caller are the caller's, never the cache's own file
+                        boolean copy = params.optString("outputDirectory", "").length() > 0
+                                || params.optString("filename", "").length() > 0
+                                || !StoredImageWriter.NAMING_FILENAME.equals(params.optString("naming", StoredImageWriter.NAMING_FILENAME));
+                        if (entry != null) {
+                            JSONObject res;
+                            if (copy) {
+                                res = storeCached(params, entry);
+                            } else {
+                                res = new JSONObject();
+                                res.put("filePath", Uri.fromFile(entry.file).toString());
+                                res.put("width", entry.width);
+                                res.put("height", entry.height);
+                                res.put("bytes", entry.length);
+                            }
+                            for (String field : CACHED_FIELDS) {
+                                if (entry.fields.has(field)) {
+                                    res.put(field, entry.fields.get(field));
+                                }
+                            }
+                            callbackContext.success(res);
+                            return;
+                        }
+                        // requests for outputs of their own compute them, only the others wait for a computation
+                        // under a name of ours, so concurrent misses never share a temporary file
+                        if (!copy) {
+                            params.put("filename", key);
+                            if (cache.join(key, callbackContext)) {
+                                return;
+                            }
+                        }
+                        callbackContext = new CachingCallbackContext(callbackContext, cache, key, task, copy);
+                    }
+
+                    // header, EXIF data and pixels are all read from this one view
+                    openView(uri);
+                }
+                int sourceWidth;
+                int sourceHeight;
+                ImageHeader header = readHeader();
+                if (header != null) {
+                    sourceWidth = header.width;
+                    sourceHeight = header.height;
+                } else {
+                    BitmapFactory.Options bounds = new BitmapFactory.Options();
+                    bounds.inJustDecodeBounds = true;
+                    getBitmap(imageData, imageDataType, bounds);
+                    sourceWidth = bounds.outWidth;
+                    sourceHeight = bounds.outHeight;
+                }
+                if (sourceWidth <= 0 || sourceHeight <= 0) {
+                    throw new IOException("The image file could not be opened.");
+                }
+
+                // the requested size applies to the image as it is displayed
+                int orientation = header != null ? Orientation.sanitize(header.orientation) : Orientation.NORMAL;
+                boolean transposed = Orientation.isTransposed(orientation);
+                int displayedWidth = transposed ? sourceHeight : sourceWidth;
+                int displayedHeight = transposed ? sourceWidth : sourceHeight;
+                // a crop is decoded alone, everything from here on refers to it
+                int decodeWidth = sourceWidth;
+                int decodeHeight = sourceHeight;
+                int[] crop = planCrop(displayedWidth, displayedHeight);
+                if (crop != null) {
+                    displayedWidth = crop[2] - crop[0];
+                    displayedHeight = crop[3] - crop[1];
+                    region = crop.clone();
+                    Orientation.toStored(orientation, sourceWidth, sourceHeight, region);
+                    decodeWidth = region[2] - region[0];
+                    decodeHeight = region[3] - region[1];
+                }
+                float[] sizes = calculateFactors(params, displayedWidth, displayedHeight);
+                int width = Math.max(1, (int) (displayedWidth * sizes[0]));
+                int height = Math.max(1, (int) (displayedHeight * sizes[1]));
+                if (crop != null && !params.has("crop")) {
+                    // fit: cover fills the box exactly
+                    width = Math.max(1, (int) params.getDouble("width"));
+                    height = Math.max(1, (int) params.getDouble("height"));
+                }
+                if (params.optBoolean("preview") && !isCancelled()) {
+                    sendPreview(header, sourceWidth, sourceHeight, orientation);
+                }
+                renditions = planRenditions(displayedWidth, displayedHeight);
+                if (renditions != null) {
+                    // decoded once at the largest rendition, the others are scaled down from it
+                    width = renditions.get(0).width;
+                    height = renditions.get(0).height;
+                }
+
+                if (isCancelled()) {
+                    return;
+                }
+                ExifInterface exif = readExif(header);
+                lap(ResizeMetrics.STAGE_EXIF);
+
+                MemoryGovernor governor = getMemoryGovernor();
+                DecodePlan plan = planDecode(decodeWidth, decodeHeight, width, height, orientation, governor.available());
+                if (!governor.acquire(plan.bytes, task)) {
+                    return;
+                }
+                try {
+                    decodeAndDeliver(plan, decodeWidth, decodeHeight, width, height, orientation, exif);
+                } catch (OutOfMemoryError e) {
+                    // the estimate was off, the pool gives its bitmaps up and the cheapest plan gets one more try
+                    Log.w("ImageResizer", "out of memory, retrying with less", e);
+                    governor.recordOutOfMemory();
+                    BitmapPool.shared().clear();
+                    try {
+                        decodeAndDeliver(planDecode(decodeWidth, decodeHeight, width, height, orientation, 0),
+                                decodeWidth, decodeHeight, width, height, orientation, exif);
+                    } catch (OutOfMemoryError again) {
+                        BitmapPool.shared().clear();
+                        callbackContext.error("Out of memory");
+                    }
+                } finally {
+                    governor.release(plan.bytes);
+                }
+            } catch (JSONException e) {
+                Log.d("PLUGIN", e.getMessage());
+                callbackContext.error(e.getMessage());
+            } catch (IOException e) {
+                Log.d("PLUGIN", e.getMessage());
+                callbackContext.error(e.getMessage());
+            } catch (URISyntaxException e) {
+                Log.d("PLUGIN", e.getMessage());
+                callbackContext.error(e.getMessage());
+            }
+        }
+
+        /**
+         * Picks how the source is decoded: in one go at the largest power of two
+         * sample size that keeps it at least as large as the target, or tile by
+         * tile when it is very large. If that does not fit into the memory left,
+         * cheaper ways are taken before the request waits for memory: RGB_565
+         * for JPEG output, which has no alpha anyway, the tiled decoder when it
+         * holds less, and at last a larger sample size.
+         *
+         * @param width     target width as displayed
+         * @param height    target height as displayed
+         * @param available memory to fit into, in bytes
+         */
+        private DecodePlan planDecode(int sourceWidth, int sourceHeight, int width, int height, int orientation, long available) {
+            boolean transposed = Orientation.isTransposed(orientation);
+            MemoryGovernor governor = getMemoryGovernor();
+            DecodePlan plan = new DecodePlan();
+            plan.sampleSize = TileGrid.sampleSize(sourceWidth, sourceHeight,
+                    transposed ? height : width, transposed ? width : height, -1);
+            // bytes in memory are decoded in one go, region decoders need a file or a descriptor
+            // a crop comes from a single region decode
+            boolean tileable = region == null && view.canDecodeRegions();
+            plan.tiled = tileable && (long) sourceWidth * sourceHeight > TILED_DECODE_PIXEL_THRESHOLD;
+            plan.bytes = estimateBytes(plan, sourceWidth, sourceHeight, width, height);
+            if (plan.bytes <= available || plan.tiled) {
+                return plan;
+            }
+            if (jpegOnly()) {
+                plan.config = Bitmap.Config.RGB_565;
+                plan.bytes = estimateBytes(plan, sourceWidth, sourceHeight, width, height);
+                governor.recordFallback(MemoryGovernor.FALLBACK_RGB_565);
+            }
+            if (plan.bytes > available && tileable) {
+                DecodePlan tiled = new DecodePlan();
+                tiled.tiled = true;
+                tiled.bytes = estimateBytes(tiled, sourceWidth, sourceHeight, width, height);
+                // the target and the tiles in flight, a win for large sources only
+                if (tiled.bytes < plan.bytes) {
+                    governor.recordFallback(MemoryGovernor.FALLBACK_TILED);
+                    return tiled;
+                }
+            }
+            if (plan.bytes > available) {
+                // decoded smaller than the target and scaled up, softer but it fits
+                for (int i = 0; i < MAX_EXTRA_SAMPLE_STEPS && plan.bytes > available; i++) {
+                    plan.sampleSize *= 2;
+                    plan.bytes = estimateBytes(plan, sourceWidth, sourceHeight, width, height);
+                }
+                governor.recordFallback(MemoryGovernor.FALLBACK_SAMPLE_SIZE);
+            }
+            return plan;
+        }
+
+        /**
+         * Rough peak of the memory a resize holds: the decoded source next to
+         * the scaled target, or the target next to the tiles in flight, plus
+         * the encoded image and its copy for the result.
+         */
+        private long estimateBytes(DecodePlan plan, int sourceWidth, int sourceHeight, int width, int height) {
+            long target = (long) width * height;
+            long encoded = target / 2;
+            long output = encoded;
+            if (params.optInt("storeImage") <= 0) {
+                // ArrayBuffers are copied once, base64 strings take two bytes a char for every 3/4 byte
+                output += RETURN_ARRAY_BUFFER.equals(params.optString("returnType")) ? encoded : encoded * 8 / 3;
+            }
+            if (plan.tiled) {
+                return target * 4 + TiledDecoder.TILE_MEMORY_BUDGET + output;
+            }
+            long decodedHeight = (sourceHeight + plan.sampleSize - 1) / plan.sampleSize;
+            long decoded = ((sourceWidth + plan.sampleSize - 1) / plan.sampleSize) * decodedHeight;
+            int bytesPerPixel = BitmapPool.bytesPerPixel(plan.config);
+            long bytes = (decoded + target) * bytesPerPixel + output;
+            if (useResampler()) {
+                // int arrays of the source, the first pass and the target
+                bytes += (decoded + Math.max(width, height) * decodedHeight + target) * 4;
+            }
+            return bytes;
+        }
+
+        private void decodeAndDeliver(DecodePlan plan, int sourceWidth, int sourceHeight, int width, int height, int orientation, ExifInterface exif) throws JSONException, IOException, URISyntaxException {
+            if (plan.tiled) {
+                resizeTiled(sourceWidth, sourceHeight, width, height, orientation, exif);
+                return;
+            }
+            Bitmap bmp = decodeScaled(sourceWidth, sourceHeight, width, height, orientation, plan);
+            if (bmp == null) {
+                throw new IOException("The image file could not be opened.");
+            }
+            try {
+                if (!isCancelled()) {
+                    bmp = deliver(bmp, exif);
+                }
+            } finally {
+                BitmapPool.shared().put(bmp);
+            }
+        }
+
+        /**
+         * Decodes the mapped source at the sample size and in the config of the
+         * plan, then scales and orients it in a single pass with the filter of
+         * the requested quality, or the kernel of the Java resampler.
+         *
+         * @param width  target width as displayed
+         * @param height target height as displayed
+         */
+        private Bitmap decodeScaled(int sourceWidth, int sourceHeight, int width, int height, int orientation, DecodePlan plan) throws IOException, URISyntaxException {
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inSampleSize = plan.sampleSize;
+            options.inPreferredConfig = plan.config;
+            options.inPreferQualityOverSpeed = RESIZE_QUALITY_HIGH.equals(resizeQuality);
+            BitmapPool.shared().prepareDecode(options,
+                    (sourceWidth + options.inSampleSize - 1) / options.inSampleSize,
+                    (sourceHeight + options.inSampleSize - 1) / options.inSampleSize);
+            Bitmap bmp = region != null ? decodeRegion(options) : getBitmap(imageData, imageDataType, options);
+            lap(ResizeMetrics.STAGE_DECODE);
+            if (bmp == null || (orientation == Orientation.NORMAL && bmp.getWidth() == width && bmp.getHeight() == height)) {
+                return bmp;
+            }
+            if (timer != null) {
+                // source and target are held at the same time while scaling
+                timer.bitmapBytes(bmp.getByteCount() + (long) width * height * 4);
+            }
+            Bitmap scaled;
+            if (useResampler()) {
+                scaled = BitmapUtil.resample(bmp, orientation, width, height, resizeKernel);
+            } else {
+                scaled = BitmapUtil.transform(bmp, orientation, width, height, getFilter());
+            }
+            lap(ResizeMetrics.STAGE_SCALE);
+            return scaled;
+        }
+
+        /**
+         * Sends a small preview ahead of the result: the thumbnail embedded in
+         * the EXIF data of a JPEG, passed through as it is when the image needs
+         * no turning or cropping, or else a decode at a high sample size, of
+         * the crop only if there is one. It is always a JPEG and carries
+         * "preview": true. A preview that fails is skipped, the final result
+         * follows either way.
+         */
+        private void sendPreview(ImageHeader header, int sourceWidth, int sourceHeight, int orientation) {
+            PooledByteArrayOutputStream encoded = null;
+            Bitmap bmp = null;
+            try {
+                byte[] thumbnail = header != null && ImageHeader.FORMAT_JPEG.equals(header.format) ? readThumbnail() : null;
+                if (thumbnail != null) {
+                    BitmapFactory.Options options = new BitmapFactory.Options();
+                    options.inJustDecodeBounds = orientation == Orientation.NORMAL && region == null;
+                    bmp = BitmapFactory.decodeByteArray(thumbnail, 0, thumbnail.length, options);
+                    if (options.inJustDecodeBounds) {
+                        if (options.outWidth <= 0) {
+                            return;
+                        }
+                        encoded = PooledByteArrayOutputStream.obtain(thumbnail.length);
+                        encoded.write(thumbnail, 0, thumbnail.length);
+                        sendPreview(encoded, options.outWidth, options.outHeight);
+                        return;
+                    }
+                    if (bmp != null && region != null) {
+                        bmp = cropPreview(bmp, sourceWidth, sourceHeight);
+                    }
+                } else if (region != null) {
+                    BitmapFactory.Options options = new BitmapFactory.Options();
+                    options.inSampleSize = TileGrid.sampleSize(region[2] - region[0], region[3] - region[1],
+                            PREVIEW_SIZE, PREVIEW_SIZE, -1);
+                    bmp = decodeRegion(options);
+                } else {
+                    BitmapFactory.Options options = new BitmapFactory.Options();
+                    options.inSampleSize = TileGrid.sampleSize(sourceWidth, sourceHeight, PREVIEW_SIZE, PREVIEW_SIZE, -1);
+                    bmp = getBitmap(imageData, imageDataType, options);
+                }
+                if (bmp == null) {
+                    return;
+                }
+                if (orientation != Orientation.NORMAL) {
+                    boolean transposed = Orientation.isTransposed(orientation);
+                    bmp = BitmapUtil.transform(bmp, orientation, transposed ? bmp.getHeight() : bmp.getWidth(),
+                            transposed ? bmp.getWidth() : bmp.getHeight(), BitmapUtil.FILTER_NEAREST);
+                }
+                encoded = PooledByteArrayOutputStream.obtain(bmp.getWidth() * bmp.getHeight());
+                bmp.compress(Bitmap.CompressFormat.JPEG, PREVIEW_QUALITY, encoded);
+                sendPreview(encoded, bmp.getWidth(), bmp.getHeight());
+            } catch (Exception e) {
+                Log.w("ImageResizer", "No preview for " + view, e);
+            } finally {
+                if (bmp != null) {
+                    BitmapPool.shared().put(bmp);
+                }
+                if (encoded != null) {
+                    encoded.release();
+                }
+            }
+        }
+
+        /**
+         * Cuts the crop out of a thumbnail of the whole stored image.
+         *
+         * @param bmp handed back to the pool
+         */
+        private Bitmap cropPreview(Bitmap bmp, int sourceWidth, int sourceHeight) {
+            float scaleX = (float) bmp.getWidth() / sourceWidth;
+            float scaleY = (float) bmp.getHeight() / sourceHeight;
+            int width = Math.max(1, Math.round((region[2] - region[0]) * scaleX));
+            int height = Math.max(1, Math.round((region[3] - region[1]) * scaleY));
+            Matrix matrix = new Matrix();
+            matrix.postTranslate(-region[0] * scaleX, -region[1] * scaleY);
+            Bitmap cropped = BitmapUtil.drawIntoPooledBitmap(bmp, width, height, matrix, false);
+            BitmapPool.shared().put(bmp);
+            return cropped;
+        }
+
+        private void sendPreview(PooledByteArrayOutputStream jpeg, int width, int height) throws JSONException {
+            JSONObject res = new JSONObject();
+            res.put("preview", true);
+            res.put("width", width);
+            res.put("height", height);
+            if (RETURN_ARRAY_BUFFER.equals(params.optString("returnType"))) {
+                res.put("format", FORMAT_JPG);
+                sendProgress(jpeg.toByteArray(), res);
+            } else {
+                res.put("imageData", jpeg.toBase64());
+                sendProgress(null, res);
+            }
+            lap(ResizeMetrics.STAGE_PREVIEW);
+        }
+
+        /**
+         * The thumbnail of the EXIF data, null if there is none.
+         */
+        private byte[] readThumbnail() {
+            if (view == null) {
+                return null;
+            }
+            ExifInterface exif = new ExifInterface();
+            try {
+                exif.readExif(view.openStream(), ExifInterface.Options.OPTION_IFD_0 | ExifInterface.Options.OPTION_IFD_1
+                        | ExifInterface.Options.OPTION_THUMBNAIL);
+            } catch (Exception e) {
+                return null;
+            }
+            return exif.getThumbnailBytes();
+        }
+
+        /**
+         * Decodes the stored pixels of the crop only, their cost grows with the
+         * crop and not with the whole image.
+         */
+        private Bitmap decodeRegion(BitmapFactory.Options options) throws IOException {
+            BitmapRegionDecoder decoder = view.newRegionDecoder();
+            try {
+                Rect rect = new Rect(region[0], region[1], region[2], region[3]);
+                try {
+                    return decoder.decodeRegion(rect, options);
+                } catch (IllegalArgumentException e) {
+                    // the pooled target did not fit, decode into a new one
+                    BitmapPool.shared().abandonDecode(options);
+                    return decoder.decodeRegion(rect, options);
+                }
+            } finally {
+                decoder.recycle();
+            }
+        }
+
+        /**
+         * The part of the image to resize as displayed, from the crop option,
+         * {x, y, width, height}, or for fit: "cover" the largest part with the
+         * aspect ratio of the width and height, placed by the gravity option:
+         * "center", "top", "bottom", "left", "right" or a corner like
+         * "topLeft".
+         *
+         * @return left, top, right and bottom, null for the whole image
+         */
+        private int[] planCrop(int displayedWidth, int displayedHeight) throws JSONException {
+            JSONObject crop = params.optJSONObject("crop");
+            if (crop != null) {
+                int left = Math.max(0, Math.min(displayedWidth - 1, crop.optInt("x")));
+                int top = Math.max(0, Math.min(displayedHeight - 1, crop.optInt("y")));
+                int width = crop.has("width") ? crop.getInt("width") : crop.optInt("w", displayedWidth);
+                int height = crop.has("height") ? crop.getInt("height") : crop.optInt("h", displayedHeight);
+                return new int[]{left, top, Math.min(displayedWidth, left + Math.max(1, width)),
+                        Math.min(displayedHeight, top + Math.max(1, height))};
+            }
+            double boxWidth = params.optDouble("width", 0);
+            double boxHeight = params.optDouble("height", 0);
+            if (!FIT_COVER.equals(params.optString("fit")) || !(boxWidth > 0) || !(boxHeight > 0)) {
+                return null;
+            }
+            double aspect = boxWidth / boxHeight;
+            int width = displayedWidth;
+            int height = displayedHeight;
+            if ((double) displayedWidth / displayedHeight > aspect) {
+                width = Math.max(1, (int) Math.round(displayedHeight * aspect));
+            } else {
+                height = Math.max(1, (int) Math.round(displayedWidth / aspect));
+            }
+            String gravity = params.optString("gravity", "center").toLowerCase(Locale.US);
+            int left = (displayedWidth - width) / 2;
+            int top = (displayedHeight - height) / 2;
+            if (gravity.contains("left")) {
+                left = 0;
+            } else if (gravity.contains("right")) {
+                left = displayedWidth - width;
+            }
+            if (gravity.contains("top")) {
+                top = 0;
+            } else if (gravity.contains("bottom")) {
+                top = displayedHeight - height;
+            }
+            return new int[]{left, top, left + width, top + height};
+        }
+
+        /**
+         * Reads the EXIF data that goes into a stored JPEG. Base64 results carry
+         * no EXIF data and the library only reads it from JPEG sources, so
+         * everything else skips the parse.
+         *
+         * @return the EXIF data, null if there is none to write
+         */
+        private ExifInterface readExif(ImageHeader header) {
+            if (params.optInt("storeImage") <= 0 || header == null || !ImageHeader.FORMAT_JPEG.equals(header.format)) {
+                return null;
+            }
+            ExifInterface exif = new ExifInterface();
+            try {
+                // the embedded thumbnail shows the full image, it is not copied to the result
+                exif.readExif(view.openStream(), ExifInterface.Options.OPTION_ALL & ~ExifInterface.Options.OPTION_THUMBNAIL);
+            } catch (Exception e) {
+                Log.e("ImageResizer", "exif.readExif( " + view + " )");
+                return null;
+            }
+            try {
+                exif.setTagValue(ExifInterface.TAG_ORIENTATION, 1);
+            } catch (Exception e) {
+                Log.e("ImageResizer", "exif.setTagValue(ExifInterface.TAG_ORIENTATION,1)");
+            }
+            return exif;
+        }
+
+        /**
+         * Fetches sources that are not local files through Fresco, downsampled
+         * to the requested size. The data source is closed as soon as the
+         * result is in, and unless memoryCache is set the decoded image is
+         * evicted from Fresco's memory cache again, it is not needed twice.
+         */
+        private void fetchWithFresco(final Uri uri) throws JSONException {
+            ImageRequestBuilder builder = ImageRequestBuilder.newBuilderWithSource(uri);
+            int width = (int) params.getDouble("width");
+            int height = (int) params.getDouble("height");
+            if (width > 0 || height > 0) {
+                // the source size is not known before the fetch, Fresco keeps both sides at least
+                // this large, a side left open does not hold the sampling back
+                builder.setResizeOptions(new ResizeOptions(Math.max(1, width), Math.max(1, height)));
+            }
+            builder.setAutoRotateEnabled(true);
+            final ImagePipeline imagePipeline = getImagePipeline();
+            final boolean oneShot = !params.optBoolean("memoryCache");
+            final DataSource<CloseableReference<CloseableImage>> source = imagePipeline.fetchDecodedImage(builder.build(), this);
+            dataSource = source;
+            if (isCancelled()) {
+                source.close();
+                return;
+            }
+
+            CallerThreadExecutor executor = CallerThreadExecutor.getInstance();
+            source.subscribe(
+                    new BaseBitmapDataSubscriber() {
+                        @Override
+                        protected void onFailureImpl(DataSource<CloseableReference<CloseableImage>> dataSource) {
+                            try {
+                                callbackContext.error("Failed to resize image!");
+                            } finally {
+                                release();
+                            }
+                        }
+
+                        @Override
+                        protected void onNewResultImpl(Bitmap bmp) {
+                            // the subscriber closes its reference to bmp once this returns
+                            try {
+                                if (!isCancelled()) {
+                                    lap(ResizeMetrics.STAGE_FETCH);
+                                    deliverFetched(bmp);
+                                }
+                            } finally {
+                                release();
+                            }
+                        }
+
+                        private void release() {
+                            source.close();
+                            dataSource = null;
+                            if (oneShot) {
+                                imagePipeline.evictFromMemoryCache(uri);
+                            }
+                        }
+                    }
+                    , executor);
+        }
+
+        /**
+         * Takes Fresco's sampled decode to the exact target size, as the local
+         * path does, and delivers it.
+         */
+        private void deliverFetched(Bitmap bmp) {
+            int width = bmp.getWidth();
+            int height = bmp.getHeight();
+            try {
+                renditions = planRenditions(bmp.getWidth(), bmp.getHeight());
+                if (renditions == null) {
+                    float[] factors = calculateFactors(params, bmp.getWidth(), bmp.getHeight());
+                    width = Math.max(1, (int) (bmp.getWidth() * factors[0]));
+                    height = Math.max(1, (int) (bmp.getHeight() * factors[1]));
+                }
+            } catch (JSONException e) {
+                callbackContext.error(e.getMessage());
+                return;
+            }
+            if (renditions == null && width == bmp.getWidth() && height == bmp.getHeight()) {
+                deliver(bmp, null);
+                return;
+            }
+            // scaling and the cascade hand what they scale down to the pool, Fresco's bitmap stays Fresco's
+            Bitmap copy = bmp.copy(bmp.getConfig() != null ? bmp.getConfig() : Bitmap.Config.ARGB_8888, true);
+            if (renditions == null) {
+                copy = scaleDown(copy, width, height);
+            }
+            BitmapPool.shared().put(deliver(copy, null));
+        }
+
+        /**
+         * Decodes images too large for a single decode tile by tile.
+         *
+         * @param width  target width as displayed
+         * @param height target height as displayed
+         */
+        private void resizeTiled(int sourceWidth, int sourceHeight, int width, int height, int orientation, ExifInterface exif) throws JSONException {
+            boolean transposed = Orientation.isTransposed(orientation);
+            TiledDecoder.Result tiled;
+            try {
+                tiled = TiledDecoder.decode(view, sourceWidth, sourceHeight,
+                        transposed ? height : width, transposed ? width : height, -1, orientation,
+                        getFilter() != BitmapUtil.FILTER_NEAREST);
+            } catch (IOException e) {
+                Log.d("PLUGIN", e.getMessage());
+                callbackContext.error(e.getMessage());
+                return;
+            } catch (BitmapUtil.UnableToDecodeBitmapException e) {
+                Log.d("PLUGIN", e.getMessage());
+                callbackContext.error(e.getMessage());
+                return;
+            }
+            lap(ResizeMetrics.STAGE_DECODE);
+            if (timer != null) {
+                timer.bitmapBytes(tiled.bitmap.getByteCount());
+            }
+            if (isCancelled()) {
+                BitmapPool.shared().put(tiled.bitmap);
+                return;
+            }
+            JSONObject tiles = new JSONObject();
+            tiles.put("count", tiled.tiles);
+            tiles.put("workers", tiled.workers);
+            tiles.put("sampleSize", tiled.sampleSize);
+            tiles.put("tilesPerSecond", tiled.tilesPerSecond());
+            extras().put("tiles", tiles);
+            Bitmap bmp = tiled.bitmap;
+            try {
+                bmp = deliver(bmp, exif);
+            } finally {
+                BitmapPool.shared().put(bmp);
+            }
+        }
+
+        /**
+         * Sends the resized bitmap back, either stored together with the EXIF
+         * data, base64 encoded or as an ArrayBuffer. With the sizes option
+         * every rendition is scaled down from the one before, largest first,
+         * and all of them go back in one result.
+         *
+         * @param exif EXIF data for a stored JPEG, null for none
+         * @return the bitmap to hand back to the pool, bitmaps scaled down
+         * from have been handed back already
+         */
+        private Bitmap deliver(Bitmap bmp, ExifInterface exif) {
+            try {
+                if (params.optBoolean("computeHash") || params.optBoolean("computePlaceholder")) {
+                    addSignature(bmp);
+                }
+                boolean binary = params.optInt("storeImage") <= 0 && RETURN_ARRAY_BUFFER.equals(params.optString("returnType"));
+                if (renditions == null) {
+                    byte[][] images = binary ? new byte[1][] : null;
+                    JSONObject res = encode(bmp, exif, params, images, 0);
+                    if (binary) {
+                        sendBinaryResult(images, res);
+                    } else {
+                        sendResult(res);
+                    }
+                    return bmp;
+                }
+                JSONObject[] results = new JSONObject[renditions.size()];
+                byte[][] images = binary ? new byte[renditions.size()][] : null;
+                for (Rendition rendition : renditions) {
+                    if (isCancelled()) {
+                        return bmp;
+                    }
+                    if (bmp.getWidth() != rendition.width || bmp.getHeight() != rendition.height) {
+                        bmp = scaleDown(bmp, rendition.width, rendition.height);
+                    }
+                    results[rendition.index] = encode(bmp, exif, rendition.params, images, rendition.index);
+                }
+                // in the order of the sizes option
+                JSONArray renditionResults = new JSONArray();
+                for (JSONObject result : results) {
+                    renditionResults.put(result);
+                }
+                JSONObject res = new JSONObject();
+                res.put("images", renditionResults);
+                if (binary) {
+                    sendBinaryResult(images, res);
+                } else {
+                    sendResult(res);
+                }
+            } catch (JSONException e) {
+                Log.d("PLUGIN", e.getMessage());
+                callbackContext.error(e.getMessage());
+            } catch (IOException e) {
+                Log.d("PLUGIN", e.getMessage());
+                callbackContext.error(e.getMessage());
+            } catch (URISyntaxException e) {
+                Log.d("PLUGIN", e.getMessage());
+                callbackContext.error(e.getMessage());
+            }
+            return bmp;
+        }
+
+        /**
+         * Adds the dHash and the placeholder of the resized image to the
+         * result, read from the bitmap that is about to be encoded, so no
+         * second decode is needed. With sizes it is the largest rendition.
+         */
+        private void addSignature(Bitmap bmp) throws JSONException {
+            int width = bmp.getWidth();
+            int height = bmp.getHeight();
+            ImageSignature signature = new ImageSignature(width, height);
+            int[] row = new int[width];
+            for (int y = 0; y < height; y += signature.stride()) {
+                bmp.getPixels(row, 0, width, 0, y, width, 1);
+                signature.addRow(row, y);
+            }
+            if (params.optBoolean("computeHash")) {
+                extras().put("hash", signature.dHash());
+            }
+            if (params.optBoolean("computePlaceholder")) {
+                extras().put("placeholder", signature.placeholder());
+            }
+        }
+
+        /**
+         * Whether every output is a JPEG, which has no alpha channel to lose
+         * in an RGB_565 decode.
+         */
+        private boolean jpegOnly() {
+            if (!isJpeg(format)) {
+                return false;
+            }
+            if (renditions != null) {
+                for (Rendition rendition : renditions) {
+                    if (!isJpeg(rendition.params.optString("format", format))) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Encodes one image, stored or in memory.
+         *
+         * @param options the request's parameters, or those of a rendition,
+         *                which may have a format of its own
+         * @param images  receives the encoded image at index for ArrayBuffer
+         *                results, null otherwise
+         * @return the result fields of the image
+         */
+        private JSONObject encode(Bitmap bmp, ExifInterface exif, JSONObject options, byte[][] images, int index) throws JSONException, IOException, URISyntaxException {
+            String format = options.optString("format", this.format);
+            if (options.getInt("storeImage") > 0) {
+                //James Kong 2017-01-27
+                // the EXIF writer makes JPEG files only
+                if (exif == null || !isJpeg(format)) {
+                    return writeImage(options, format, bmp);
+                }
+                try {
+                    return writeImageWithExif(options, format, bmp, exif);
+                } catch (Exception e) {
+                    return writeImage(options, format, bmp);
+                }
+            }
+            QualitySearch.Result searched = searchQuality(options, format, bmp);
+            PooledByteArrayOutputStream encoded;
+            if (searched != null) {
+                encoded = searched.encoded;
+            } else {
+                encoded = PooledByteArrayOutputStream.obtain(bmp.getWidth() * bmp.getHeight() / 2);
+            }
+            String returnString = null;
+            int bytes;
+            try {
+                if (searched == null) {
+                    bmp.compress(compressFormatOf(options, format), encoderQuality(options, format), encoded);
+                    lap(ResizeMetrics.STAGE_ENCODE);
+                }
+                bytes = encoded.size();
+                if (timer != null) {
+                    timer.bytesOut(encoded.size());
+                }
+                if (images != null) {
+                    images[index] = encoded.toByteArray();
+                } else {
+                    returnString = encoded.toBase64();
+                    lap(ResizeMetrics.STAGE_BASE64);
+                }
+            } finally {
+                encoded.release();
+            }
+            // return object
+            JSONObject res = new JSONObject();
+            res.put("width", bmp.getWidth());
+            res.put("height", bmp.getHeight());
+            res.put("bytes", bytes);
+            if (images != null) {
+                res.put("format", format);
+            } else {
+                res.put("imageData", returnString);
+            }
+            putSearchResult(res, searched);
+            return res;
+        }
+
+        /**
+         * Scales a rendition down to the next one, the source goes back to the
+         * pool.
+         */
+        private Bitmap scaleDown(Bitmap bmp, int width, int height) {
+            Bitmap scaled;
+            if (useResampler()) {
+                scaled = BitmapUtil.resample(bmp, Orientation.NORMAL, width, height, resizeKernel);
+            } else {
+                scaled = BitmapUtil.transform(bmp, Orientation.NORMAL, width, height, getFilter());
+            }
+            lap(ResizeMetrics.STAGE_SCALE);
+            return scaled;
+        }
+
+        /**
+         * Target sizes of the sizes option, largest first. An entry is either
+         * a number, the box the image has to fit into, or an object with width,
+         * height and any other option to override for that rendition.
+         *
+         * @param width  source width as displayed
+         * @param height source height as displayed
+         * @return the renditions, null without the sizes option
+         */
+        private List<Rendition> planRenditions(int width, int height) throws JSONException {
+            JSONArray sizes = params.optJSONArray("sizes");
+            if (sizes == null || sizes.length() == 0) {
+                return null;
+            }
+            String filename = params.optString("filename", "");
+            String extension = extensionOf(format);
+            if (filename.toLowerCase(Locale.US).endsWith(extension)) {
+                filename = filename.substring(0, filename.length() - extension.length());
+            }
+            List<Rendition> planned = new ArrayList<Rendition>(sizes.length());
+            for (int i = 0; i < sizes.length(); i++) {
+                JSONObject options = new JSONObject(params.toString());
+                options.remove("sizes");
+                Object size = sizes.get(i);
+                if (size instanceof JSONObject) {
+                    JSONObject overrides = (JSONObject) size;
+                    Iterator<String> keys = overrides.keys();
+                    while (keys.hasNext()) {
+                        String key = keys.next();
+                        options.put(key, overrides.get(key));
+                    }
+                } else {
+                    options.put("width", sizes.getDouble(i));
+                    options.put("height", sizes.getDouble(i));
+                }
+                // stored or not, that is up to the whole request
+                options.put("storeImage", params.optInt("storeImage"));
+                float[] factors = calculateFactors(options, width, height);
+                int renditionWidth = Math.max(1, (int) (width * factors[0]));
+                int renditionHeight = Math.max(1, (int) (height * factors[1]));
+                if (filename.length() > 0 && !(size instanceof JSONObject && ((JSONObject) size).has("filename"))) {
+                    // one file per rendition
+                    options.put("filename", filename + "_" + renditionWidth + "x" + renditionHeight);
+                }
+                planned.add(new Rendition(i, options, renditionWidth, renditionHeight));
+            }
+            Collections.sort(planned, new Comparator<Rendition>() {
+                @Override
+                public int compare(Rendition a, Rendition b) {
+                    long areaA = (long) a.width * a.height;
+                    long areaB = (long) b.width * b.height;
+                    return areaA > areaB ? -1 : (areaA < areaB ? 1 : 0);
+                }
+            });
+            return planned;
+        }
+
+        private float[] calculateFactors(JSONObject params, int width, int height) throws JSONException {
+            // String resizeType = params.getString("resizeType");
+            String resizeType = RESIZE_TYPE_MAX_PIXEL;
+            float desiredWidth = (float) params.getDouble("width");
+            float desiredHeight = (float) params.getDouble("height");
+            return ResizeMath.calculateFactors(resizeType, desiredWidth, desiredHeight, width, height);
+        }
+    }
+
+    /**
+     * One output of the sizes option.
+     */
+    private static class Rendition {
+        final int index;
+        final JSONObject params;
+        final int width;
+        final int height;
+
+        Rendition(int index, JSONObject params, int width, int height) {
+            this.index = index;
+            this.params = params;
+            this.width = width;
+            this.height = height;
+        }
+    }
+
+    /**
+     * How a resize decodes its source and the memory it holds that way.
+     */
+    private static class DecodePlan {
+        Bitmap.Config config = Bitmap.Config.ARGB_8888;
+        int sampleSize;
+        boolean tiled;
+        long bytes;
+    }
+
+    /**
+     * Resizes a list of images with a bounded number of items in flight.
+     * Every finished item is reported through a kept callback, the last
+     * message carries "done": true. A journaled batch writes its items to a
+     * {@link ResizeJournal} as they finish, survives the process and reports
+     * to whichever page reconnects, it has no callback while none is attached.
+     */
+    private class ResizeImages implements Runnable {
+        private String requestId;
+        private volatile boolean cancelled;
+        private volatile boolean stopped;
+        private JSONObject options;
+        private JSONArray images;
+        private volatile CallbackContext callbackContext;
+        private ResizeJournal journal;
+        private int total;
+        // indexes of the items still to resize, pendingCount of them
+        private int[] pending;
+        private int pendingCount;
+        private boolean finished;
+        private final AtomicInteger next = new AtomicInteger();
+        private final AtomicInteger completed = new AtomicInteger();
+        private final AtomicInteger failed = new AtomicInteger();
+        private final AtomicInteger finishedItems = new AtomicInteger();
+
+        public ResizeImages(JSONObject params, CallbackContext callbackContext) throws JSONException {
+            this.callbackContext = callbackContext;
+            this.requestId = params.optString("requestId", null);
+            this.images = params.getJSONArray("images");
+            this.options = params.has("options") ? params.getJSONObject("options") : new JSONObject();
+            this.total = images.length();
+            this.pending = new int[total];
+            for (int i = 0; i < total; i++) {
+                pending[i] = i;
+            }
+            this.pendingCount = total;
+        }
+
+        /**
+         * Resumes a journaled batch of an earlier process. Items that failed
+         * stay failed, finished items are only resized again if one of their
+         * stored outputs is gone.
+         */
+        public ResizeImages(ResizeJournal journal) throws JSONException {
+            this(journal.params(), null);
+            this.journal = journal;
+            pendingCount = 0;
+            for (int i = 0; i < total; i++) {
+                JSONObject record = journal.record(i);
+                if (record == null) {
+                    pending[pendingCount++] = i;
+                } else if (record.has("error")) {
+                    failed.incrementAndGet();
+                } else if (outputsExist(record.getJSONObject("result"))) {
+                    completed.incrementAndGet();
+                } else {
+                    pending[pendingCount++] = i;
+                }
+            }
+            finishedItems.set(total - pendingCount);
+            finished = journal.isDone() && pendingCount == 0;
+        }
+
+        @Override
+        public void run() {
+            if (finished) {
+                // over before the process went, waits for a page
+                return;
+            }
+            if (pendingCount == 0) {
+                finish();
+                return;
+            }
+            int parallelism = Math.min(batchParallelism(options.optInt("parallelism", 0)), pendingCount);
+            for (int i = 0; i < parallelism; i++) {
+                submitNext();
+            }
+        }
+
+        private void submitNext() {
+            int slot = next.getAndIncrement();
+            if (slot >= pendingCount) {
+                return;
+            }
+            final int index = pending[slot];
+            CallbackContext itemContext = new BatchItemCallbackContext(this, index);
+            try {
+                JSONObject itemParams = itemParams(index);
+                if (requestId != null) {
+                    // lets cancelResize(requestId) find the items in flight
+                    itemParams.put("requestId", requestId + "/" + index);
+                }
+                // the batch window already limits the items in flight
+                submit(new ResizeImage(itemParams, itemContext), ResizeExecutor.PRIORITY_BACKGROUND, false);
+            } catch (JSONException e) {
+                Log.d("PLUGIN", e.getMessage());
+                itemContext.error(e.getMessage());
+            }
         }
 
-        protected Bitmap getBitmap(String imageData, String imageDataType, BitmapFactory.Options options) throws IOException, URISyntaxException {
-            Bitmap bmp;
-            if (imageDataType.equals(IMAGE_DATA_TYPE_BASE64)) {
-                byte[] blob = Base64.decode(imageData, Base64.DEFAULT);
-                bmp = BitmapFactory.decodeByteArray(blob, 0, blob.length, options);
+        private JSONObject itemParams(int index) throws JSONException {
+            JSONObject itemParams = new JSONObject();
+            Iterator<String> keys = options.keys();
+            while (keys.hasNext()) {
+                String key = keys.next();
+                itemParams.put(key, options.get(key));
+            }
+            Object image = images.get(index);
+            if (image instanceof JSONObject) {
+                // per item overrides, e.g. {data: ..., filename: ...}
+                JSONObject item = (JSONObject) image;
+                keys = item.keys();
+                while (keys.hasNext()) {
+                    String key = keys.next();
+                    itemParams.put(key, item.get(key));
+                }
             } else {
-                URI uri = new URI(imageData);
-                File imageFile = new File(uri);
-                bmp = BitmapFactory.decodeFile(imageFile.getAbsolutePath(), options);
+                itemParams.put("data", image);
             }
-            return bmp;
+            // progress messages are JSON, binary results do not fit into them
+            itemParams.remove("returnType");
+            // the batch reports finished items only
+            itemParams.remove("preview");
+            return itemParams;
         }
 
-        protected void storeImage(JSONObject params, String format, Bitmap bmp, CallbackContext callbackContext) throws JSONException, IOException, URISyntaxException {
-            int quality = params.getInt("quality");
-            String filename = params.getString("filename");
-            String filePath = System.getProperty("java.io.tmpdir") + "/" + filename + ".jpg";
-            File file = new File(filePath);
-            OutputStream outStream = new FileOutputStream(file);
-            if (format.equals(FORMAT_PNG)) {
-                bmp.compress(Bitmap.CompressFormat.PNG, quality,
-                        outStream);
+        private void itemFinished(int index, JSONObject result, String error) {
+            if (stopped) {
+                // the next plugin resizes it again
+                return;
+            }
+            if (error == null) {
+                completed.incrementAndGet();
             } else {
-                bmp.compress(Bitmap.CompressFormat.JPEG, quality,
-                        outStream);
+                failed.incrementAndGet();
+            }
+            int done = finishedItems.incrementAndGet();
+            JSONObject progress = new JSONObject();
+            try {
+                if (error == null) {
+                    progress.put("result", result);
+                } else {
+                    progress.put("error", error);
+                }
+                progress.put("index", index);
+                progress.put("total", total);
+                progress.put("completed", completed.get());
+                progress.put("failed", failed.get());
+            } catch (JSONException e) {
+                Log.d("PLUGIN", e.getMessage());
+            }
+            // a page that reconnects gets the item either from the journal or from here
+            synchronized (this) {
+                if (journal != null && !cancelled) {
+                    journal.append(index, result, error);
+                }
+                PluginResult pluginResult = new PluginResult(PluginResult.Status.OK, progress);
+                pluginResult.setKeepCallback(true);
+                send(pluginResult);
+            }
+
+            if (done == total) {
+                finish();
+            } else {
+                submitNext();
             }
-            outStream.flush();
-            outStream.close();
-            JSONObject res = new JSONObject();
-            res.put("filePath", Uri.fromFile(file).toString());
-            res.put("width", bmp.getWidth());
-            res.put("height", bmp.getHeight());
-            callbackContext.success(res);
         }
 
-        //James Kong 2017-01-27
-        protected void storeImageWithExif(JSONObject params, String format, Bitmap bmp, ExifInterface exif, CallbackContext callbackContext) throws JSONException, IOException, URISyntaxException {
-            int quality = params.getInt("quality");
-            String filename = params.getString("filename");
-            String filePath = System.getProperty("java.io.tmpdir") + "/" + filename + ".jpg";
-            File file = new File(filePath);
-            exif.writeExif(bmp, filePath, quality);
-            JSONObject res = new JSONObject();
-            res.put("filePath", Uri.fromFile(file).toString());
-            res.put("width", bmp.getWidth());
-            res.put("height", bmp.getHeight());
-            callbackContext.success(res);
+        /**
+         * Stops submitting items, those not started yet count as failed.
+         * Items in flight are cancelled through their request ids.
+         */
+        private void cancel() {
+            cancelled = true;
+            int claimed = next.getAndSet(pendingCount);
+            int skipped = Math.max(0, pendingCount - claimed);
+            if (skipped > 0) {
+                failed.addAndGet(skipped);
+                if (finishedItems.addAndGet(skipped) == total) {
+                    finish();
+                }
+            }
+            synchronized (this) {
+                if (journal != null && finished) {
+                    // over already, nobody collected the results
+                    journal.delete();
+                }
+            }
         }
-    }
 
-    private class GetImageSize extends ImageTools implements Runnable {
-        public GetImageSize(JSONObject params, CallbackContext callbackContext) throws JSONException {
-            super(params, callbackContext);
+        /**
+         * Stops submitting items without counting them, the journal resumes
+         * them in the next plugin.
+         */
+        private void stop() {
+            stopped = true;
+            next.set(pendingCount);
+            journal.close();
         }
 
-        @Override
-        public void run() {
-            try {
-                BitmapFactory.Options options = new BitmapFactory.Options();
-                options.inJustDecodeBounds = true;
-                options.inPreferredConfig = Bitmap.Config.RGB_565;
-                Bitmap bmp = getBitmap(imageData, imageDataType, options);
-                JSONObject res = new JSONObject();
-                res.put("width", options.outWidth);
-                res.put("height", options.outHeight);
-                callbackContext.success(res);
-            } catch (JSONException e) {
-                callbackContext.error(e.getMessage());
-            } catch (IOException e) {
-                Log.d("PLUGIN", e.getMessage());
-                callbackContext.error(e.getMessage());
-            } catch (URISyntaxException e) {
-                Log.d("PLUGIN", e.getMessage());
-                callbackContext.error(e.getMessage());
+        private synchronized void detach() {
+            callbackContext = null;
+        }
+
+        /**
+         * Attaches the callback of a page to a journaled batch. It receives
+         * the items finished so far in one message, then the batch goes on
+         * as if the page had started it.
+         */
+        private synchronized void reconnect(CallbackContext callbackContext) throws JSONException {
+            JSONObject snapshot = progress();
+            JSONArray items = new JSONArray();
+            for (int i = 0; i < total; i++) {
+                JSONObject record = journal.record(i);
+                if (record != null) {
+                    items.put(record);
+                }
+            }
+            snapshot.put("items", items);
+            snapshot.put("reconnected", true);
+            PluginResult pluginResult = new PluginResult(PluginResult.Status.OK, snapshot);
+            pluginResult.setKeepCallback(true);
+            callbackContext.sendPluginResult(pluginResult);
+            this.callbackContext = callbackContext;
+            if (finished) {
+                sendDone();
             }
         }
-    }
 
-    private class StoreImage extends ImageTools implements Runnable {
-        public StoreImage(JSONObject params, CallbackContext callbackContext) throws JSONException {
-            super(params, callbackContext);
+        private JSONObject progress() throws JSONException {
+            JSONObject res = new JSONObject();
+            res.put("requestId", requestId);
+            res.put("done", finished);
+            res.put("cancelled", cancelled);
+            res.put("total", total);
+            res.put("completed", completed.get());
+            res.put("failed", failed.get());
+            return res;
         }
 
-        @Override
-        public void run() {
+        private void send(PluginResult pluginResult) {
+            CallbackContext target = callbackContext;
+            if (target != null) {
+                target.sendPluginResult(pluginResult);
+            }
+        }
+
+        private synchronized void finish() {
+            finished = true;
+            if (journal != null && !cancelled) {
+                journal.finish();
+            }
+            if (callbackContext != null || journal == null || cancelled) {
+                sendDone();
+            }
+        }
+
+        /**
+         * Sends the last message, the batch and its journal are gone then.
+         */
+        private void sendDone() {
+            if (requestId != null) {
+                batches.remove(requestId);
+            }
+            if (journal != null) {
+                journal.delete();
+            }
             try {
-                Bitmap bmp = getBitmap(imageData, imageDataType, new BitmapFactory.Options());
-                if (bmp == null) {
-                    throw new IOException("The image file could not be opened.");
-                }
-                this.storeImage(params, format, bmp, callbackContext);
+                JSONObject res = new JSONObject();
+                res.put("done", true);
+                res.put("cancelled", cancelled);
+                res.put("total", total);
+                res.put("completed", completed.get());
+                res.put("failed", failed.get());
+                send(new PluginResult(PluginResult.Status.OK, res));
             } catch (JSONException e) {
-                Log.d("PLUGIN", e.getMessage());
-                callbackContext.error(e.getMessage());
-            } catch (IOException e) {
-                Log.d("PLUGIN", e.getMessage());
-                callbackContext.error(e.getMessage());
-            } catch (URISyntaxException e) {
-                Log.d("PLUGIN", e.getMessage());
-                callbackContext.error(e.getMessage());
+                send(new PluginResult(PluginResult.Status.ERROR, e.getMessage()));
             }
         }
     }
 
-    private class ResizeImage extends ImageTools implements Runnable {
-        public ResizeImage(JSONObject params, CallbackContext callbackContext) throws JSONException {
-            super(params, callbackContext);
+    /**
+     * Receives the result of a task instead of sending it to the WebView,
+     * only the first result counts.
+     */
+    private abstract class ResultCallbackContext extends CallbackContext {
+        private boolean reported;
+        // the result as it was sent if it is binary, onResult() gets no JSON result then
+        protected PluginResult binaryResult;
+
+        public ResultCallbackContext(CallbackContext target) {
+            this(target.getCallbackId());
+        }
+
+        public ResultCallbackContext(String callbackId) {
+            super(callbackId, webView);
         }
 
         @Override
-        public void run() {
-            try {
-                URI uri_ = new URI(imageData);
-                Uri uri = Uri.parse(imageData);
-
-                final File imageFile = new File(uri_);
-                final BitmapFactory.Options options = new BitmapFactory.Options();
-                options.inJustDecodeBounds = true;
-                BitmapFactory.decodeFile(imageFile.getAbsolutePath(), options);
-
-                float[] sizes = calculateFactors(params, options.outWidth, options.outHeight);
-                float reqWidth = options.outWidth * sizes[0];
-                float reqHeight = options.outHeight * sizes[1];
-//                float desiredWidth = (float) params.getDouble("width");
-//                float desiredHeight = (float) params.getDouble("height");
-
-                ImageRequest request = ImageRequestBuilder.newBuilderWithSource(uri)
-                        .setResizeOptions(new ResizeOptions((int) reqWidth, (int) reqHeight))
-                        .build();
-                ImagePipeline imagePipeline = Fresco.getImagePipeline();
-                final DataSource<CloseableReference<CloseableImage>> dataSource = imagePipeline.fetchDecodedImage(request, this);
-
-                CallerThreadExecutor executor = CallerThreadExecutor.getInstance();
-                dataSource.subscribe(
-                        new BaseBitmapDataSubscriber() {
-                            @Override
-                            protected void onFailureImpl(DataSource<CloseableReference<CloseableImage>> dataSource) {
-                                callbackContext.error("Failed to resize image!");
-                            }
+        public void success(JSONObject message) {
+            report(message, null);
+        }
 
-                            @Override
-                            protected void onNewResultImpl(Bitmap bmp) {
-                                ExifInterface exif = new ExifInterface();
-                                long orientation = 0;
-                                ExifTag orientationTag = null;
-                                try {
-                                    exif.readExif(imageFile.getAbsolutePath(), ExifInterface.Options.OPTION_ALL);
+        @Override
+        public void error(String message) {
+            report(null, message != null ? message : "Failed to resize image!");
+        }
 
+        @Override
+        public void sendPluginResult(PluginResult pluginResult) {
+            if (pluginResult.getKeepCallback()) {
+                synchronized (this) {
+                    if (reported) {
+                        return;
+                    }
+                }
+                onProgress(pluginResult);
+                return;
+            }
+            if (pluginResult.getStatus() == PluginResult.Status.OK.ordinal()) {
+                int messageType = pluginResult.getMessageType();
+                if (messageType == PluginResult.MESSAGE_TYPE_ARRAYBUFFER || messageType == PluginResult.MESSAGE_TYPE_MULTIPART) {
+                    report(null, null, pluginResult);
+                    return;
+                }
+                try {
+                    report(new JSONObject(pluginResult.getMessage()), null);
+                } catch (JSONException e) {
+                    report(null, e.getMessage());
+                }
+            } else {
+                report(null, pluginResult.getMessage());
+            }
+        }
 
-                                    orientationTag = exif.getTag(ExifInterface.TAG_ORIENTATION);
-                                    orientation = orientationTag.getValueAsLong(0);
+        private void report(JSONObject result, String error) {
+            report(result, error, null);
+        }
 
-                                } catch (Exception e) {
-                                    Log.e("ImageResizer", "exif.readExif( " + imageFile.getAbsolutePath() + " , ExifInterface.Options.OPTION_ALL )");
-                                }
-                                Log.d("Exif", exif.toString());
-                                try {
-                                    exif.setTagValue(ExifInterface.TAG_ORIENTATION, 1);
+        private void report(JSONObject result, String error, PluginResult binary) {
+            synchronized (this) {
+                if (reported) {
+                    return;
+                }
+                reported = true;
+                binaryResult = binary;
+            }
+            onResult(result, error);
+        }
 
-                                } catch (Exception e) {
-                                    Log.e("ImageResizer", "exif.setTagValue(ExifInterface.TAG_ORIENTATION,1)");
-                                }
-                                try {
-                                    if (params.getInt("storeImage") > 0) {
-                                        //James Kong 2017-01-27
-                                        try {
-                                            storeImageWithExif(params, format, bmp, exif, callbackContext);
-                                        } catch (Exception e) {
-                                            storeImage(params, format, bmp, callbackContext);
-                                        }
-                                    } else {
-                                        int quality = params.getInt("quality");
-                                        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                                        if (format.equals(FORMAT_PNG)) {
-                                            bmp.compress(Bitmap.CompressFormat.PNG, quality, baos);
-                                        } else {
-                                            bmp.compress(Bitmap.CompressFormat.JPEG, quality, baos);
-                                        }
-                                        byte[] b = baos.toByteArray();
-                                        String returnString = Base64.encodeToString(b, Base64.NO_WRAP);
-                                        // return object
-                                        JSONObject res = new JSONObject();
-                                        res.put("imageData", returnString);
-                                        res.put("width", bmp.getWidth());
-                                        res.put("height", bmp.getHeight());
-                                        callbackContext.success(res);
-                                    }
-                                } catch (JSONException e) {
-                                    Log.d("PLUGIN", e.getMessage());
-                                    callbackContext.error(e.getMessage());
-                                } catch (IOException e) {
-                                    Log.d("PLUGIN", e.getMessage());
-                                    callbackContext.error(e.getMessage());
-                                } catch (URISyntaxException e) {
-                                    Log.d("PLUGIN", e.getMessage());
-                                    callbackContext.error(e.getMessage());
-                                }
-                            }
-                        }
-                        , executor);
+        /**
+         * @param result the result on success, null otherwise and for binaryResult
+         * @param error  the error message on failure, null otherwise
+         */
+        protected abstract void onResult(JSONObject result, String error);
+
+        /**
+         * Receives results sent ahead of the final one, e.g. previews, they are
+         * dropped unless passed on.
+         */
+        protected void onProgress(PluginResult pluginResult) {
+        }
+    }
 
-            } catch (JSONException e) {
-                Log.d("PLUGIN", e.getMessage());
-                callbackContext.error(e.getMessage());
-            } catch (URISyntaxException e) {
-                e.printStackTrace();
-            }
+    /**
+     * Collects the result of a single batch item.
+     */
+    private class BatchItemCallbackContext extends ResultCallbackContext {
+        private ResizeImages batch;
+        private int index;
+
+        public BatchItemCallbackContext(ResizeImages batch, int index) {
+            // the batch may have no page attached, nothing is sent under this id
+            super(batch.requestId + "/" + index);
+            this.batch = batch;
+            this.index = index;
         }
 
-        private Bitmap getResizedBitmap(Bitmap bm, float widthFactor, float heightFactor, short orientation) {
-            int width = bm.getWidth();
-            int height = bm.getHeight();
-            int rotate = 0;
+        @Override
+        protected void onResult(JSONObject result, String error) {
+            batch.itemFinished(index, result, error);
+        }
+    }
 
-            /**
+    /**
+     * Forwards the result of a queued request and ends its task, results that
+     * arrive after a cancellation are dropped.
+     */
+    private class TaskCallbackContext extends ResultCallbackContext {
+        private CallbackContext target;
+        private ResizeExecutor.Task task;
+        private ImageTools tools;
+
+        public TaskCallbackContext(CallbackContext target, ResizeExecutor.Task task, ImageTools tools) {
+            super(target);
+            this.target = target;
+            this.task = task;
+            this.tools = tools;
+        }
 
-             * BOTTOM_LEFT 3 180
-             * RIGHT_TOP 6 90
-             * RIGHT_BOTTOM 8 270
-             */
-            switch (orientation) {
-                case ExifInterface.Orientation.RIGHT_BOTTOM:
-                    rotate = 270;
-                    break;
-                case ExifInterface.Orientation.BOTTOM_LEFT:
-                    rotate = 180;
-                    break;
-                case ExifInterface.Orientation.RIGHT_TOP:
-                    rotate = 90;
-                    break;
+        @Override
+        protected void onResult(JSONObject result, String error) {
+            getResizeExecutor().finished(task);
+            if (statsEnabled && tools.timer != null) {
+                metrics.record(tools.timer, error == null);
+            }
+            if (error != null) {
+                target.error(error);
+            } else if (binaryResult != null) {
+                target.sendPluginResult(binaryResult);
+            } else {
+                target.success(result);
             }
-            // create a matrix for the manipulation
-            Matrix matrix = new Matrix();
-            // resize the bit map
-            matrix.postScale(widthFactor, heightFactor);
-            matrix.postRotate(rotate);
-            // recreate the new Bitmap
-            Bitmap resizedBitmap = Bitmap.createBitmap(bm, 0, 0, width, height, matrix, false);
-            return resizedBitmap;
         }
 
-        private int calculateInSampleSize(BitmapFactory.Options options, int reqWidth, int reqHeight) {
-            // Raw height and width of image
-            final int height = options.outHeight;
-            final int width = options.outWidth;
-            int inSampleSize = 1;
-
-            if (height > reqHeight || width > reqWidth) {
-                final int halfHeight = height / 2;
-                final int halfWidth = width / 2;
+        @Override
+        protected void onProgress(PluginResult pluginResult) {
+            if (!task.isCancelled()) {
+                target.sendPluginResult(pluginResult);
+            }
+        }
 
-                // Calculate the largest inSampleSize value that is a power of 2 and keeps both
-                // height and width larger than the requested height and width.
-                while ((halfHeight / inSampleSize) > reqHeight && (halfWidth / inSampleSize) > reqWidth) {
-                    inSampleSize *= 2;
-                }
+        /**
+         * Queues the task again, for a request that waited for an identical
+         * one that got cancelled. A request cancelled in the meantime has its
+         * answer already.
+         */
+        public void rerun() {
+            if (!task.isCancelled()) {
+                getResizeExecutor().execute(task, false);
             }
+        }
+    }
 
-            return inSampleSize;
+    /**
+     * Moves a stored result into the result cache, or copies it if the caller
+     * placed or named it, and hands it to the caller and to every identical
+     * request that joined in the meantime.
+     */
+    private class CachingCallbackContext extends ResultCallbackContext {
+        private CallbackContext target;
+        private ResizeResultCache cache;
+        private String key;
+        private ResizeExecutor.Task task;
+        // the output is the caller's, the cache stores a copy and nobody waits for it
+        private boolean copy;
+
+        public CachingCallbackContext(CallbackContext target, ResizeResultCache cache, String key, ResizeExecutor.Task task, boolean copy) {
+            super(target);
+            this.target = target;
+            this.cache = cache;
+            this.key = key;
+            this.task = task;
+            this.copy = copy;
         }
 
-        private float[] calculateFactors(JSONObject params, int width, int height) throws JSONException {
-            float widthFactor;
-            float heightFactor;
-            // String resizeType = params.getString("resizeType");
-            String resizeType = RESIZE_TYPE_MAX_PIXEL;
-            float desiredWidth = (float) params.getDouble("width");
-            float desiredHeight = (float) params.getDouble("height");
-            if (resizeType.equals(RESIZE_TYPE_MIN_PIXEL)) {
-                widthFactor = desiredWidth / (float) width;
-                heightFactor = desiredHeight / (float) height;
-                if (widthFactor > heightFactor && widthFactor <= 1.0) {
-                    heightFactor = widthFactor;
-                } else if (heightFactor <= 1.0) {
-                    widthFactor = heightFactor;
+        @Override
+        protected void onResult(JSONObject result, String error) {
+            if (error == null) {
+                try {
+                    File file = new File(new URI(result.getString("filePath")));
+                    JSONObject fields = new JSONObject();
+                    for (String field : CACHED_FIELDS) {
+                        if (result.has(field)) {
+                            fields.put(field, result.get(field));
+                        }
+                    }
+                    ResizeResultCache.Entry entry = cache.put(key, file, result.getInt("width"), result.getInt("height"), fields, copy);
+                    if (entry != null && !copy) {
+                        result.put("filePath", Uri.fromFile(entry.file).toString());
+                    }
+                } catch (JSONException e) {
+                    Log.e("ImageResizer", "Could not cache the result", e);
+                } catch (URISyntaxException e) {
+                    Log.e("ImageResizer", "Could not cache the result", e);
+                }
+            }
+            if (copy) {
+                // the caller's own output, nobody joined it
+                if (error == null) {
+                    target.success(result);
                 } else {
-                    widthFactor = 1.0f;
-                    heightFactor = 1.0f;
-                }
-            } else if (resizeType.equals(RESIZE_TYPE_MAX_PIXEL)) {
-                widthFactor = desiredWidth / (float) width;
-                heightFactor = desiredHeight / (float) height;
-                if (widthFactor == 0.0) {
-                    widthFactor = heightFactor;
-                } else if (heightFactor == 0.0) {
-                    heightFactor = widthFactor;
-                } else if (widthFactor > heightFactor) {
-                    widthFactor = heightFactor; // scale to fit height
+                    target.error(error);
+                }
+                return;
+            }
+            List<CallbackContext> targets = cache.complete(key);
+            if (error != null && task != null && task.isCancelled()) {
+                // only this request was cancelled, those that joined it compute the key themselves,
+                // the first to run takes it over and the others join that one
+                target.error(error);
+                for (CallbackContext callbackContext : targets) {
+                    if (callbackContext instanceof TaskCallbackContext) {
+                        ((TaskCallbackContext) callbackContext).rerun();
+                    } else {
+                        callbackContext.error(error);
+                    }
+                }
+                return;
+            }
+            targets.add(0, target);
+            for (CallbackContext callbackContext : targets) {
+                if (error == null) {
+                    callbackContext.success(result);
                 } else {
-                    heightFactor = widthFactor; // scale to fit width
+                    callbackContext.error(error);
                 }
+            }
+        }
+
+        @Override
+        protected void onProgress(PluginResult pluginResult) {
+            // requests that joined wait for the stored file only
+            target.sendPluginResult(pluginResult);
+        }
+    }
+
+    /**
+     * The pipeline that fetches sources which are not local files. It has
+     * caches of its own with fixed limits, so images the plugin fetches once
+     * never push the app's images out of a shared cache. If the app does not
+     * use Fresco itself, Fresco is set up with the same configuration.
+     */
+    private synchronized ImagePipeline getImagePipeline() {
+        if (imagePipeline == null) {
+            Context context = cordova.getActivity().getApplicationContext();
+            ImagePipelineConfig config = createPipelineConfig(context);
+            if (!Fresco.hasBeenInitialized()) {
+                Fresco.initialize(context, config);
+                imagePipeline = Fresco.getImagePipeline();
             } else {
-                widthFactor = desiredWidth;
-                heightFactor = desiredHeight;
+                imagePipeline = new ImagePipelineFactory(config).getImagePipeline();
             }
+        }
+        return imagePipeline;
+    }
 
+    private ImagePipelineConfig createPipelineConfig(Context context) {
+        int memoryCacheSize = (int) Math.min(Integer.MAX_VALUE, Runtime.getRuntime().maxMemory() / 16);
+        int diskCacheSize = DEFAULT_FRESCO_DISK_CACHE_SIZE;
+        if (preferences != null) {
+            memoryCacheSize = preferences.getInteger("ImageResizerFrescoMemoryCacheSize", memoryCacheSize);
+            diskCacheSize = preferences.getInteger("ImageResizerFrescoDiskCacheSize", diskCacheSize);
+        }
+        final MemoryCacheParams memoryCacheParams = new MemoryCacheParams(
+                memoryCacheSize, // bytes in the cache
+                32, // entries in the cache
+                memoryCacheSize / 4, // bytes waiting for eviction
+                8, // entries waiting for eviction
+                memoryCacheSize / 4); // bytes of a single entry, larger ones are not cached at all
+        DiskCacheConfig diskCacheConfig = DiskCacheConfig.newBuilder(context)
+                .setBaseDirectoryName("imageResizerFresco")
+                .setMaxCacheSize(diskCacheSize)
+                .setMaxCacheSizeOnLowDiskSpace(diskCacheSize / 4)
+                .setMaxCacheSizeOnVeryLowDiskSpace(diskCacheSize / 16)
+                .build();
+        return ImagePipelineConfig.newBuilder(context)
+                .setDownsampleEnabled(true)
+                .setResizeAndRotateEnabledForNetwork(true)
+                .setBitmapMemoryCacheParamsSupplier(new Supplier<MemoryCacheParams>() {
+                    @Override
+                    public MemoryCacheParams get() {
+                        return memoryCacheParams;
+                    }
+                })
+                .setMainDiskCacheConfig(diskCacheConfig)
+                .build();
+    }
+
+    private synchronized ResizeResultCache getResultCache() {
+        if (resultCache == null) {
+            int maxBytes = DEFAULT_CACHE_SIZE;
+            if (preferences != null) {
+                maxBytes = preferences.getInteger("ImageResizerCacheSize", DEFAULT_CACHE_SIZE);
+            }
+            File directory = new File(cordova.getActivity().getCacheDir(), "imageResizer");
+            resultCache = new ResizeResultCache(directory, maxBytes);
+        }
+        return resultCache;
+    }
 
-            float[] sizes = {widthFactor, heightFactor};
-            return sizes;
+    /**
+     * Number of batch items allowed in flight: one per core, limited by how
+     * many worst case decodes fit into half of the heap.
+     */
+    private static int batchParallelism(int requested) {
+        Runtime runtime = Runtime.getRuntime();
+        int cores = runtime.availableProcessors();
+        long memorySlots = (runtime.maxMemory() / 2) / BATCH_ITEM_MEMORY_ESTIMATE;
+        int parallelism = (int) Math.max(1, Math.min(cores, memorySlots));
+        if (requested > 0) {
+            parallelism = Math.min(requested, parallelism);
         }
+        return parallelism;
     }
 
 
@@ -425,47 +2578,72 @@ class BitmapUtil {
     private final static int MAX_BITMAP_SIZE = 2048;
     private final static int NO_MAX_SAMPLE_SIZE = -1;
 
-    public static Bitmap rotateBitmap(Bitmap originalBitmap, int rotation, boolean flipHorizontal) {
-        Matrix matrix = new Matrix();
-        if (rotation > 0) matrix.postRotate(rotation);
-        // Flip bitmap if need
-        if (flipHorizontal) matrix.postScale(-1, 1);
-        Bitmap rotatedBitmap = Bitmap.createBitmap(originalBitmap, 0, 0, originalBitmap.getWidth(), originalBitmap.getHeight(),
-                matrix, true);
-        originalBitmap.recycle();
-        return rotatedBitmap;
-    }
+    // Filters that finish a resize, from fastest to best
+    public final static int FILTER_NEAREST = 0;
+    public final static int FILTER_BILINEAR = 1;
+    public final static int FILTER_AREA = 2;
 
-    public static int calculateInSampleSize(BitmapFactory.Options options, int displayWidth, int displayHeight, int maxSampleSize, boolean isFillScreen) {
-        final int height = options.outHeight;
-        final int width = options.outWidth;
-        int inSampleSize = 1;
+    /**
+     * A bitmap for QualitySearch, encoded with Bitmap.compress().
+     */
+    static class BitmapEncoder implements QualitySearch.Encoder {
+        private final Bitmap bitmap;
+        private final Bitmap.CompressFormat format;
+        // whether release() hands the bitmap back to the pool, only scaled copies are ours
+        private final boolean pooled;
+
+        BitmapEncoder(Bitmap bitmap, Bitmap.CompressFormat format, boolean pooled) {
+            this.bitmap = bitmap;
+            this.format = format;
+            this.pooled = pooled;
+        }
 
-        if (height > displayHeight || width > displayWidth) {
+        @Override
+        public int width() {
+            return bitmap.getWidth();
+        }
 
-            final int halfHeight = height / 2;
-            final int halfWidth = width / 2;
+        @Override
+        public int height() {
+            return bitmap.getHeight();
+        }
 
-            while ((halfHeight / inSampleSize) > displayHeight || (halfWidth / inSampleSize) > displayWidth) {
-                inSampleSize *= 2;
-            }
+        @Override
+        public void encode(int quality, PooledByteArrayOutputStream out) {
+            bitmap.compress(format, quality, out);
+        }
 
-            // Check inSampleSize for other orientation, pick the small one
-            if (isFillScreen) {
-                int orientationInSampleSize = 1;
-                while ((halfHeight / orientationInSampleSize) > displayWidth || (halfWidth / orientationInSampleSize) > displayHeight)
-                    orientationInSampleSize *= 2;
-                inSampleSize = (orientationInSampleSize < inSampleSize) ? orientationInSampleSize : inSampleSize;
-            }
+        @Override
+        public QualitySearch.Encoder scaled(int width, int height) {
+            Matrix matrix = new Matrix();
+            matrix.setScale((float) width / bitmap.getWidth(), (float) height / bitmap.getHeight());
+            return new BitmapEncoder(drawIntoPooledBitmap(bitmap, width, height, matrix, true), format, true);
         }
 
-        if (maxSampleSize != NO_MAX_SAMPLE_SIZE) {
-            if (inSampleSize > maxSampleSize) {
-                inSampleSize = maxSampleSize;
+        @Override
+        public void release() {
+            if (pooled) {
+                BitmapPool.shared().put(bitmap);
             }
         }
+    }
+
+    public static Bitmap rotateBitmap(Bitmap originalBitmap, int rotation, boolean flipHorizontal) {
+        Matrix matrix = new Matrix();
+        if (rotation > 0) matrix.postRotate(rotation);
+        // Flip bitmap if need
+        if (flipHorizontal) matrix.postScale(-1, 1);
+        // Move the turned bitmap back to the origin
+        RectF bounds = new RectF(0, 0, originalBitmap.getWidth(), originalBitmap.getHeight());
+        matrix.mapRect(bounds);
+        matrix.postTranslate(-bounds.left, -bounds.top);
+        Bitmap rotatedBitmap = drawIntoPooledBitmap(originalBitmap, Math.round(bounds.width()), Math.round(bounds.height()), matrix, true);
+        BitmapPool.shared().put(originalBitmap);
+        return rotatedBitmap;
+    }
 
-        return inSampleSize;
+    public static int calculateInSampleSize(BitmapFactory.Options options, int displayWidth, int displayHeight, int maxSampleSize, boolean isFillScreen) {
+        return ResizeMath.calculateInSampleSize(options.outWidth, options.outHeight, displayWidth, displayHeight, maxSampleSize, isFillScreen);
     }
 
     public static int calculateInSampleSize(BitmapFactory.Options options, int displayWidth, int displayHeight) {
@@ -598,89 +2776,20 @@ class BitmapUtil {
     }
 
     /**
-     * Resize large bitmap by pieces, calculate the size by maxDisplayDimension provided
+     * Resize large bitmap by pieces, decoded in parallel by TiledDecoder
      *
      * @param context        this context
      * @param source         source file
      * @param requiredWidth  new width
      * @param requiredHeight new height
-     * @return false if too small to resize or resize failed
+     * @return the resized bitmap
      */
     public static Bitmap decodeLargeBitmap(Context context, File source, int requiredWidth, int requiredHeight, int maxSampleSize) {
         BitmapFactory.Options options = getBitmapOptions(source.toString());
-        int sourceWidth = options.outWidth;
-        int sourceHeight = options.outHeight;
-
-        int sampleSize = calculateInSampleSize(options, requiredWidth, requiredHeight, maxSampleSize, false);
-//        if (sourceWidth <= requiredWidth || sourceHeight <= requiredHeight || sampleSize == 1 && requiredWidth < MAX_BITMAP_SIZE && requiredHeight < MAX_BITMAP_SIZE) {
-//            options.inSampleSize = sampleSize;
-//            options.inJustDecodeBounds = false;
-//            return BitmapFactory.decodeFile(source.toString(), options);
-//        }
-
-        // Limit the block size to prevent out of memory
-        int BLOCK_SIZE_LIMIT = 1024;
-        int blockWidth = sourceWidth;
-        int blockHeight = sourceHeight;
-
-        // Find the suitable block size for balancing resize time and heap usage
-        int countBlock = 2;
-        while (sourceWidth / countBlock > BLOCK_SIZE_LIMIT) {
-            countBlock++;
-        }
-        blockWidth = sourceWidth / countBlock;
-        countBlock = 2;
-        while (sourceHeight / countBlock > BLOCK_SIZE_LIMIT) {
-            countBlock++;
-        }
-        blockHeight = sourceHeight / countBlock;
-
-        int noOfWidth = (int) Math.ceil((float) sourceWidth / (float) blockWidth);
-        int noOfHeight = (int) Math.ceil((float) sourceHeight / (float) blockHeight);
-        double ratioWidth = (double) requiredWidth / (double) sourceWidth;
-        double ratioHeight = (double) requiredHeight / (double) sourceHeight;
-        int resizedBlockWidth = (int) Math.ceil(blockWidth * ratioWidth);
-        int resizedBlockHeight = (int) Math.ceil(blockHeight * ratioHeight);
-
-        Log.d("BitmpUtils", "block: " + blockWidth + ", " + blockHeight);
-        Log.d("BitmpUtils", "noOfBlock: " + noOfWidth + ", " + noOfHeight);
-        Log.d("BitmpUtils", "resizedBlock: " + resizedBlockWidth + ", " + resizedBlockHeight);
-        Log.d("BitmpUtils", "name: " + source.toString());
-
         try {
-            Bitmap fullImage = Bitmap.createBitmap(requiredWidth, requiredHeight, Bitmap.Config.ARGB_8888);
-            fullImage.setHasAlpha(false);
-            Canvas canvas = new Canvas(fullImage);
-            InputStream sourceInputStream = context.getContentResolver().openInputStream(Uri.fromFile(source));
-            BitmapRegionDecoder decoder = BitmapRegionDecoder.newInstance(sourceInputStream, false);
-            int count = 0;
-            BitmapFactory.Options optionsForDecodeRegion = new BitmapFactory.Options();
-            optionsForDecodeRegion.inPreferredConfig = Bitmap.Config.ARGB_8888;
-            for (int y = 0; y < noOfHeight; y++) {
-                for (int x = 0; x < noOfWidth; x++) {
-
-                    Rect region = new Rect(blockWidth * x,
-                            blockHeight * y,
-                            (blockWidth * x) + blockWidth,
-                            (blockHeight * y) + blockHeight);
-                    Bitmap blockBitmap = decoder.decodeRegion(region, optionsForDecodeRegion);
-                    blockBitmap.setHasAlpha(false);
-
-                    /**
-                     * To process scaling, image must be smaller than target image.
-                     */
-                    if (blockBitmap.getWidth() > resizedBlockWidth && blockBitmap.getHeight() > resizedBlockHeight)
-                        blockBitmap = getScaledBitmap(blockBitmap, resizedBlockWidth, resizedBlockHeight);
-
-                    canvas.drawBitmap(blockBitmap, x * resizedBlockWidth, y * resizedBlockHeight, new Paint());
-                    blockBitmap.recycle();
-
-                    Log.d("BitmpUtils", "total: " + count++ + "/" + noOfWidth * noOfHeight);
-                }
-            }
-            canvas.save();
-            return fullImage;
-        } catch (Exception e) {
+            return TiledDecoder.decode(SourceView.open(source), options.outWidth, options.outHeight,
+                    requiredWidth, requiredHeight, maxSampleSize, Orientation.NORMAL, true).bitmap;
+        } catch (IOException e) {
             throw new UnableToDecodeBitmapException(e);
         }
     }
@@ -694,11 +2803,115 @@ class BitmapUtil {
      * @return resized bitmap
      */
     public static Bitmap getScaledBitmap(Bitmap bitmap, int newWidth, int newHeight) {
-        Bitmap resizedBitmap = Bitmap.createScaledBitmap(bitmap, newWidth, newHeight, true);
-        bitmap.recycle();
+        Matrix matrix = new Matrix();
+        matrix.setScale((float) newWidth / bitmap.getWidth(), (float) newHeight / bitmap.getHeight());
+        Bitmap resizedBitmap = drawIntoPooledBitmap(bitmap, newWidth, newHeight, matrix, true);
+        BitmapPool.shared().put(bitmap);
         return resizedBitmap;
     }
 
+    /**
+     * Scale, rotate and mirror a bitmap in a single pass
+     *
+     * @param bitmap      input source, handed back to the pool
+     * @param orientation EXIF orientation of the source
+     * @param width       target width as displayed
+     * @param height      target height as displayed
+     * @param filter      FILTER_NEAREST, FILTER_BILINEAR or FILTER_AREA
+     * @return target bitmap
+     */
+    public static Bitmap transform(Bitmap bitmap, int orientation, int width, int height, int filter) {
+        boolean transposed = Orientation.isTransposed(orientation);
+        int scaledWidth = transposed ? height : width;
+        int scaledHeight = transposed ? width : height;
+        if (filter == FILTER_AREA) {
+            // bilinear halving averages 2x2 blocks, so every source pixel counts
+            while (bitmap.getWidth() / 2 >= scaledWidth && bitmap.getHeight() / 2 >= scaledHeight) {
+                bitmap = halve(bitmap);
+            }
+        }
+        Matrix matrix = new Matrix();
+        matrix.setScale((float) scaledWidth / bitmap.getWidth(), (float) scaledHeight / bitmap.getHeight());
+        matrix.postConcat(getOrientationMatrix(orientation, scaledWidth, scaledHeight));
+        Bitmap transformedBitmap = drawIntoPooledBitmap(bitmap, width, height, matrix, filter != FILTER_NEAREST);
+        BitmapPool.shared().put(bitmap);
+        return transformedBitmap;
+    }
+
+    /**
+     * Scale, rotate and mirror a bitmap with the Java resampler
+     *
+     * @param bitmap      input source, handed back to the pool
+     * @param orientation EXIF orientation of the source
+     * @param width       target width as displayed
+     * @param height      target height as displayed
+     * @param kernel      one of the Resampler kernels
+     * @return target bitmap
+     */
+    public static Bitmap resample(Bitmap bitmap, int orientation, int width, int height, int kernel) {
+        boolean transposed = Orientation.isTransposed(orientation);
+        int sourceWidth = bitmap.getWidth();
+        int sourceHeight = bitmap.getHeight();
+        boolean hasAlpha = bitmap.hasAlpha();
+        int[] source = new int[sourceWidth * sourceHeight];
+        bitmap.getPixels(source, 0, sourceWidth, 0, 0, sourceWidth, sourceHeight);
+        BitmapPool.shared().put(bitmap);
+        int[] target = new int[width * height];
+        new Resampler(kernel).resize(source, sourceWidth, sourceHeight, target,
+                transposed ? height : width, transposed ? width : height, orientation, hasAlpha);
+        Bitmap resampledBitmap = BitmapPool.shared().getDirty(width, height, Bitmap.Config.ARGB_8888);
+        resampledBitmap.setPixels(target, 0, width, 0, 0, width, height);
+        resampledBitmap.setHasAlpha(hasAlpha);
+        return resampledBitmap;
+    }
+
+    /**
+     * Halve the bitmap in both directions
+     *
+     * @param bitmap input source, handed back to the pool
+     * @return half size bitmap
+     */
+    private static Bitmap halve(Bitmap bitmap) {
+        int width = Math.max(1, bitmap.getWidth() / 2);
+        int height = Math.max(1, bitmap.getHeight() / 2);
+        Matrix matrix = new Matrix();
+        matrix.setScale((float) width / bitmap.getWidth(), (float) height / bitmap.getHeight());
+        Bitmap halfBitmap = drawIntoPooledBitmap(bitmap, width, height, matrix, true);
+        BitmapPool.shared().put(bitmap);
+        return halfBitmap;
+    }
+
+    /**
+     * Get the matrix that displays a bitmap of the given size in its EXIF orientation
+     */
+    public static Matrix getOrientationMatrix(int orientation, float width, float height) {
+        float[] values = new float[9];
+        Orientation.transform(orientation, width, height, values);
+        values[8] = 1;
+        Matrix matrix = new Matrix();
+        matrix.setValues(values);
+        return matrix;
+    }
+
+    /**
+     * Draw the bitmap with the given matrix into a bitmap from the pool
+     *
+     * @param bitmap input source
+     * @param width  target width
+     * @param height target height
+     * @param matrix transformation from source to target
+     * @param filter bilinear filtering, nearest neighbour if false
+     * @return target bitmap
+     */
+    static Bitmap drawIntoPooledBitmap(Bitmap bitmap, int width, int height, Matrix matrix, boolean filter) {
+        Bitmap.Config config = bitmap.getConfig() != null ? bitmap.getConfig() : Bitmap.Config.ARGB_8888;
+        Bitmap target = BitmapPool.shared().get(width, height, config);
+        target.setHasAlpha(bitmap.hasAlpha());
+        Canvas canvas = new Canvas(target);
+        canvas.drawBitmap(bitmap, matrix, filter ? new Paint(Paint.FILTER_BITMAP_FLAG) : null);
+        return target;
+    }
+
     /**
      * Get the bitmap options from bitmap without open the file
      *
@@ -0,0 +1,145 @@
+package com.synconset;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Locale;
+
+/**
+ * Fingerprints of an image taken from its pixels in a single pass: a 64 bit
+ * difference hash (dHash) to find near duplicates by their Hamming distance,
+ * and a placeholder, the average colour and a tiny grid of colours to show
+ * blurred while the image loads. Rows are fed one at a time, so a bitmap is
+ * read without copying all of its pixels, and large images are sampled at a
+ * stride. Plain Java, so it can be checked off the device.
+ */
+class ImageSignature {
+    // dHash compares 8 rows of 9 neighbouring cells
+    private static final int HASH_COLUMNS = 9;
+    private static final int HASH_ROWS = 8;
+    // Cells of the longer side of the placeholder grid
+    private static final int GRID_SIZE = 4;
+    // Pixels sampled across the shorter side at least
+    private static final int MIN_SAMPLES = 128;
+
+    private final int width;
+    private final int height;
+    private final int stride;
+    private final int gridWidth;
+    private final int gridHeight;
+    // bin of every sampled column, in the hash and in the grid
+    private final int[] hashColumn;
+    private final int[] gridColumn;
+    private final long[] luminance = new long[HASH_COLUMNS * HASH_ROWS];
+    private final int[] hashCount = new int[HASH_COLUMNS * HASH_ROWS];
+    private final long[] red;
+    private final long[] green;
+    private final long[] blue;
+    private final int[] gridCount;
+
+    public ImageSignature(int width, int height) {
+        this.width = width;
+        this.height = height;
+        stride = Math.max(1, Math.min(width, height) / MIN_SAMPLES);
+        if (width >= height) {
+            gridWidth = GRID_SIZE;
+            gridHeight = Math.max(1, Math.round((float) GRID_SIZE * height / width));
+        } else {
+            gridHeight = GRID_SIZE;
+            gridWidth = Math.max(1, Math.round((float) GRID_SIZE * width / height));
+        }
+        hashColumn = new int[width];
+        gridColumn = new int[width];
+        for (int x = 0; x < width; x += stride) {
+            hashColumn[x] = (int) ((long) x * HASH_COLUMNS / width);
+            gridColumn[x] = (int) ((long) x * gridWidth / width);
+        }
+        red = new long[gridWidth * gridHeight];
+        green = new long[gridWidth * gridHeight];
+        blue = new long[gridWidth * gridHeight];
+        gridCount = new int[gridWidth * gridHeight];
+    }
+
+    /**
+     * Rows to step between two calls of addRow().
+     */
+    public int stride() {
+        return stride;
+    }
+
+    /**
+     * @param row the ARGB pixels of row y, width of them
+     */
+    public void addRow(int[] row, int y) {
+        int hashOffset = (int) ((long) y * HASH_ROWS / height) * HASH_COLUMNS;
+        int gridOffset = (int) ((long) y * gridHeight / height) * gridWidth;
+        for (int x = 0; x < width; x += stride) {
+            int pixel = row[x];
+            int r = (pixel >> 16) & 0xff;
+            int g = (pixel >> 8) & 0xff;
+            int b = pixel & 0xff;
+            int hashBin = hashOffset + hashColumn[x];
+            // Rec. 601 luma in fixed point
+            luminance[hashBin] += r * 299 + g * 587 + b * 114;
+            hashCount[hashBin]++;
+            int gridBin = gridOffset + gridColumn[x];
+            red[gridBin] += r;
+            green[gridBin] += g;
+            blue[gridBin] += b;
+            gridCount[gridBin]++;
+        }
+    }
+
+    /**
+     * 64 bits as 16 hex digits, a bit is set where a cell is brighter than
+     * its right neighbour. Images that look alike differ in a few bits only.
+     */
+    public String dHash() {
+        long bits = 0;
+        for (int y = 0; y < HASH_ROWS; y++) {
+            for (int x = 0; x < HASH_COLUMNS - 1; x++) {
+                int cell = y * HASH_COLUMNS + x;
+                bits <<= 1;
+                if (mean(luminance[cell], hashCount[cell]) > mean(luminance[cell + 1], hashCount[cell + 1])) {
+                    bits |= 1;
+                }
+            }
+        }
+        return String.format(Locale.US, "%016x", bits);
+    }
+
+    /**
+     * The average colour as "#rrggbb", and the grid, width x height cells of
+     * "rrggbb" each, row by row in one string.
+     */
+    public JSONObject placeholder() throws JSONException {
+        long totalRed = 0;
+        long totalGreen = 0;
+        long totalBlue = 0;
+        long total = 0;
+        StringBuilder grid = new StringBuilder(gridCount.length * 6);
+        for (int i = 0; i < gridCount.length; i++) {
+            totalRed += red[i];
+            totalGreen += green[i];
+            totalBlue += blue[i];
+            total += gridCount[i];
+            appendColor(grid, mean(red[i], gridCount[i]), mean(green[i], gridCount[i]), mean(blue[i], gridCount[i]));
+        }
+        StringBuilder color = new StringBuilder(7).append('#');
+        appendColor(color, mean(totalRed, total), mean(totalGreen, total), mean(totalBlue, total));
+        JSONObject placeholder = new JSONObject();
+        placeholder.put("color", color.toString());
+        placeholder.put("width", gridWidth);
+        placeholder.put("height", gridHeight);
+        placeholder.put("grid", grid.toString());
+        return placeholder;
+    }
+
+    private static long mean(long sum, long count) {
+        return count > 0 ? sum / count : 0;
+    }
+
+    private static void appendColor(StringBuilder out, long r, long g, long b) {
+        out.append(String.format(Locale.US, "%02x%02x%02x", r, g, b));
+    }
+}
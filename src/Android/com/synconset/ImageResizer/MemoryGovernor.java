@@ -0,0 +1,151 @@
+package com.synconset;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Admission control for the memory requests hold at their peak. Every request
+ * estimates its peak bytes before it decodes and reserves them against a
+ * budget derived from the heap, requests that do not fit wait until enough
+ * has been released. A request larger than the whole budget is admitted once
+ * nothing else holds a reservation, so it is delayed but never refused. The
+ * estimates are made by the caller, this class is plain Java.
+ */
+class MemoryGovernor {
+    public static final int FALLBACK_RGB_565 = 0;
+    public static final int FALLBACK_SAMPLE_SIZE = 1;
+    public static final int FALLBACK_TILED = 2;
+    private static final String[] FALLBACK_NAMES = {"rgb565", "sampleSize", "tiled"};
+
+    // how often a waiting request looks whether it has been cancelled
+    private static final long WAIT_SLICE_MILLIS = 100;
+
+    /**
+     * A request waiting for its reservation, a ResizeExecutor.Task.
+     */
+    interface Waiter {
+        boolean isCancelled();
+    }
+
+    private final long budget;
+    private long reserved;
+    private int holders;
+    private long peakReserved;
+    private long admitted;
+    private long waits;
+    private long waitNanos;
+    private final long[] fallbacks = new long[FALLBACK_NAMES.length];
+    private long outOfMemory;
+
+    public MemoryGovernor(long budget) {
+        this.budget = budget;
+    }
+
+    public long budget() {
+        return budget;
+    }
+
+    /**
+     * Bytes not reserved by anyone, negative while a request larger than the
+     * budget runs.
+     */
+    public synchronized long available() {
+        return budget - reserved;
+    }
+
+    /**
+     * Whether a reservation of the given size would be admitted right away.
+     */
+    public synchronized boolean fits(long bytes) {
+        return holders == 0 || reserved + bytes <= budget;
+    }
+
+    /**
+     * Reserves bytes, waiting as long as they do not fit next to the
+     * reservations held by others.
+     *
+     * @param task the waiting request, stops the wait when it is cancelled,
+     *             may be null
+     * @return false if the task was cancelled or the thread interrupted while
+     * waiting, nothing is reserved then
+     */
+    public synchronized boolean acquire(long bytes, Waiter task) {
+        if (!fits(bytes)) {
+            waits++;
+            long started = System.nanoTime();
+            try {
+                while (!fits(bytes)) {
+                    if (task != null && task.isCancelled()) {
+                        return false;
+                    }
+                    wait(WAIT_SLICE_MILLIS);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            } finally {
+                waitNanos += System.nanoTime() - started;
+            }
+        }
+        reserved += bytes;
+        holders++;
+        admitted++;
+        if (reserved > peakReserved) {
+            peakReserved = reserved;
+        }
+        return true;
+    }
+
+    public synchronized void release(long bytes) {
+        reserved -= bytes;
+        holders--;
+        notifyAll();
+    }
+
+    /**
+     * Counts a request that took a cheaper way under memory pressure.
+     *
+     * @param fallback one of the FALLBACK constants
+     */
+    public synchronized void recordFallback(int fallback) {
+        fallbacks[fallback]++;
+    }
+
+    /**
+     * Counts an OutOfMemoryError a request ran into despite its reservation.
+     */
+    public synchronized void recordOutOfMemory() {
+        outOfMemory++;
+    }
+
+    public synchronized void resetStats() {
+        peakReserved = reserved;
+        admitted = 0;
+        waits = 0;
+        waitNanos = 0;
+        outOfMemory = 0;
+        for (int i = 0; i < fallbacks.length; i++) {
+            fallbacks[i] = 0;
+        }
+    }
+
+    /**
+     * Sizes in bytes, the wait time in milliseconds.
+     */
+    public synchronized JSONObject toJson() throws JSONException {
+        JSONObject stats = new JSONObject();
+        stats.put("budget", budget);
+        stats.put("reserved", reserved);
+        stats.put("peakReserved", peakReserved);
+        stats.put("admitted", admitted);
+        stats.put("waits", waits);
+        stats.put("waitMillis", waitNanos / 1e6);
+        JSONObject counts = new JSONObject();
+        for (int i = 0; i < fallbacks.length; i++) {
+            counts.put(FALLBACK_NAMES[i], fallbacks[i]);
+        }
+        stats.put("fallbacks", counts);
+        stats.put("outOfMemory", outOfMemory);
+        return stats;
+    }
+}
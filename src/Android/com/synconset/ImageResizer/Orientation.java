@@ -0,0 +1,99 @@
+package com.synconset;
+
+/**
+ * The eight EXIF orientations as affine transforms from stored to displayed
+ * pixels. Orientations 2, 4, 5 and 7 are mirrored, 5 to 8 swap width and
+ * height.
+ */
+class Orientation {
+    public static final int NORMAL = 1;
+    public static final int FLIP_HORIZONTAL = 2;
+    public static final int ROTATE_180 = 3;
+    public static final int FLIP_VERTICAL = 4;
+    public static final int TRANSPOSE = 5;
+    public static final int ROTATE_90 = 6;
+    public static final int TRANSVERSE = 7;
+    public static final int ROTATE_270 = 8;
+
+    private Orientation() {
+    }
+
+    /**
+     * Anything outside 1-8 is treated as normal, as viewers do.
+     */
+    public static int sanitize(int orientation) {
+        return orientation >= NORMAL && orientation <= ROTATE_270 ? orientation : NORMAL;
+    }
+
+    public static boolean isTransposed(int orientation) {
+        return orientation >= TRANSPOSE && orientation <= ROTATE_270;
+    }
+
+    /**
+     * Fills out with the transform that displays a stored image of the given
+     * size, as the first two rows of a 3x3 matrix: x' = out[0] * x + out[1] * y
+     * + out[2], y' = out[3] * x + out[4] * y + out[5].
+     */
+    public static void transform(int orientation, float width, float height, float[] out) {
+        switch (sanitize(orientation)) {
+            case FLIP_HORIZONTAL:
+                set(out, -1, 0, width, 0, 1, 0);
+                break;
+            case ROTATE_180:
+                set(out, -1, 0, width, 0, -1, height);
+                break;
+            case FLIP_VERTICAL:
+                set(out, 1, 0, 0, 0, -1, height);
+                break;
+            case TRANSPOSE:
+                set(out, 0, 1, 0, 1, 0, 0);
+                break;
+            case ROTATE_90:
+                set(out, 0, -1, height, 1, 0, 0);
+                break;
+            case TRANSVERSE:
+                set(out, 0, -1, height, -1, 0, width);
+                break;
+            case ROTATE_270:
+                set(out, 0, 1, 0, -1, 0, width);
+                break;
+            default:
+                set(out, 1, 0, 0, 0, 1, 0);
+                break;
+        }
+    }
+
+    /**
+     * Maps a rectangle of the displayed image back onto the stored pixels.
+     *
+     * @param rect left, top, right and bottom as displayed, replaced by the
+     *             stored ones
+     */
+    public static void toStored(int orientation, int storedWidth, int storedHeight, int[] rect) {
+        float[] m = new float[6];
+        transform(orientation, storedWidth, storedHeight, m);
+        // the transforms only swap and mirror, their determinant is 1 or -1
+        float determinant = m[0] * m[4] - m[1] * m[3];
+        float x0 = rect[0] - m[2];
+        float y0 = rect[1] - m[5];
+        float x1 = rect[2] - m[2];
+        float y1 = rect[3] - m[5];
+        int storedX0 = Math.round((m[4] * x0 - m[1] * y0) / determinant);
+        int storedY0 = Math.round((m[0] * y0 - m[3] * x0) / determinant);
+        int storedX1 = Math.round((m[4] * x1 - m[1] * y1) / determinant);
+        int storedY1 = Math.round((m[0] * y1 - m[3] * x1) / determinant);
+        rect[0] = Math.min(storedX0, storedX1);
+        rect[1] = Math.min(storedY0, storedY1);
+        rect[2] = Math.max(storedX0, storedX1);
+        rect[3] = Math.max(storedY0, storedY1);
+    }
+
+    private static void set(float[] out, float a, float b, float c, float d, float e, float f) {
+        out[0] = a;
+        out[1] = b;
+        out[2] = c;
+        out[3] = d;
+        out[4] = e;
+        out[5] = f;
+    }
+}
@@ -0,0 +1,190 @@
+package com.synconset;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+import java.util.LinkedList;
+
+/**
+ * Growable output buffer for encoded images. The backing arrays come from a
+ * small shared pool and go back to it on release(), and the content can be
+ * read in place or turned into base64 without an intermediate copy.
+ */
+class PooledByteArrayOutputStream extends OutputStream {
+    private static final int MIN_BUFFER_SIZE = 64 * 1024;
+    // Keep a few buffers around, but never pin more than this much heap
+    private static final int MAX_POOLED_BUFFERS = 4;
+    private static final long MAX_POOLED_BYTES = 16L * 1024 * 1024;
+    // base64 is encoded this many input bytes at a time (a multiple of 3)
+    private static final int BASE64_CHUNK = 3 * 1024;
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+    private static final byte[] ALPHABET =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".getBytes(ASCII);
+
+    private static final LinkedList<byte[]> pool = new LinkedList<byte[]>();
+    private static long pooledBytes;
+
+    private byte[] buffer;
+    private int count;
+
+    private PooledByteArrayOutputStream(int sizeHint) {
+        buffer = acquire(sizeHint);
+    }
+
+    /**
+     * @param sizeHint expected number of bytes, the buffer grows when needed
+     */
+    public static PooledByteArrayOutputStream obtain(int sizeHint) {
+        return new PooledByteArrayOutputStream(sizeHint);
+    }
+
+    static byte[] acquire(int size) {
+        synchronized (pool) {
+            Iterator<byte[]> iterator = pool.iterator();
+            while (iterator.hasNext()) {
+                byte[] pooled = iterator.next();
+                if (pooled.length >= size) {
+                    iterator.remove();
+                    pooledBytes -= pooled.length;
+                    return pooled;
+                }
+            }
+        }
+        return new byte[Math.max(size, MIN_BUFFER_SIZE)];
+    }
+
+    static void recycle(byte[] array) {
+        if (array == null || array.length > MAX_POOLED_BYTES) {
+            return;
+        }
+        synchronized (pool) {
+            // make room by dropping the smallest buffers first
+            while (!pool.isEmpty() && (pool.size() >= MAX_POOLED_BUFFERS || pooledBytes + array.length > MAX_POOLED_BYTES)) {
+                byte[] smallest = pool.getFirst();
+                for (byte[] pooled : pool) {
+                    if (pooled.length < smallest.length) {
+                        smallest = pooled;
+                    }
+                }
+                if (smallest.length >= array.length) {
+                    return;
+                }
+                pool.remove(smallest);
+                pooledBytes -= smallest.length;
+            }
+            pool.add(array);
+            pooledBytes += array.length;
+        }
+    }
+
+    @Override
+    public void write(int b) {
+        ensureCapacity(count + 1);
+        buffer[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] data, int offset, int length) {
+        ensureCapacity(count + length);
+        System.arraycopy(data, offset, buffer, count, length);
+        count += length;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= buffer.length) {
+            return;
+        }
+        if (capacity < 0) {
+            throw new OutOfMemoryError("Encoded image too large");
+        }
+        byte[] grown = acquire(Math.max(capacity, buffer.length * 2));
+        System.arraycopy(buffer, 0, grown, 0, count);
+        recycle(buffer);
+        buffer = grown;
+    }
+
+    public void reset() {
+        count = 0;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    /**
+     * The backing array, valid up to size() and only until the next write.
+     */
+    public byte[] getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * A copy of exactly size() bytes, for consumers that take no length.
+     */
+    public byte[] toByteArray() {
+        byte[] copy = new byte[count];
+        System.arraycopy(buffer, 0, copy, 0, count);
+        return copy;
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(buffer, 0, count);
+    }
+
+    /**
+     * Encodes the content as base64 without line breaks.
+     */
+    public String toBase64() {
+        int encodedLength = (count + 2) / 3 * 4;
+        byte[] encoded = acquire(encodedLength);
+        try {
+            int out = 0;
+            for (int chunk = 0; chunk < count; chunk += BASE64_CHUNK) {
+                out = encodeChunk(buffer, chunk, Math.min(BASE64_CHUNK, count - chunk), encoded, out);
+            }
+            return new String(encoded, 0, encodedLength, ASCII);
+        } finally {
+            recycle(encoded);
+        }
+    }
+
+    private static int encodeChunk(byte[] in, int offset, int length, byte[] out, int position) {
+        int end = offset + length;
+        int i = offset;
+        for (; i + 2 < end; i += 3) {
+            int bits = ((in[i] & 0xff) << 16) | ((in[i + 1] & 0xff) << 8) | (in[i + 2] & 0xff);
+            out[position++] = ALPHABET[(bits >>> 18) & 0x3f];
+            out[position++] = ALPHABET[(bits >>> 12) & 0x3f];
+            out[position++] = ALPHABET[(bits >>> 6) & 0x3f];
+            out[position++] = ALPHABET[bits & 0x3f];
+        }
+        int left = end - i;
+        if (left > 0) {
+            int bits = (in[i] & 0xff) << 16;
+            if (left == 2) {
+                bits |= (in[i + 1] & 0xff) << 8;
+            }
+            out[position++] = ALPHABET[(bits >>> 18) & 0x3f];
+            out[position++] = ALPHABET[(bits >>> 12) & 0x3f];
+            out[position++] = left == 2 ? ALPHABET[(bits >>> 6) & 0x3f] : (byte) '=';
+            out[position++] = '=';
+        }
+        return position;
+    }
+
+    /**
+     * Hands the backing array back to the pool, the stream must not be used
+     * afterwards.
+     */
+    public void release() {
+        recycle(buffer);
+        buffer = null;
+        count = 0;
+    }
+
+    @Override
+    public void close() {
+        // release() is explicit, the content stays readable after close()
+    }
+}
@@ -0,0 +1,132 @@
+package com.synconset;
+
+/**
+ * Finds the highest quality at which an image encodes into a byte budget.
+ * A copy at most 512 pixels on its longer side is encoded first to estimate
+ * the size at every quality, which seeds a bisection of full encodes. Downsampled
+ * images carry more detail per pixel, so the estimate errs on the large side
+ * and the seed usually fits, the search then only climbs. Two buffers take
+ * turns, one holds the best encode so far, the other the next attempt. The
+ * image is reached through an Encoder only, so the search is plain Java.
+ */
+class QualitySearch {
+    public static final int MIN_QUALITY = 10;
+    // Full encodes of the search, the trial encodes are cheap and not counted
+    public static final int MAX_ENCODES = 4;
+    // Longer side of the trial copy
+    private static final int TRIAL_SIZE = 512;
+
+    /**
+     * An image in one format, e.g. a bitmap and its CompressFormat.
+     */
+    interface Encoder {
+        int width();
+
+        int height();
+
+        void encode(int quality, PooledByteArrayOutputStream out);
+
+        /**
+         * A copy scaled to width x height for the trial encodes, released
+         * once they are done.
+         */
+        Encoder scaled(int width, int height);
+
+        void release();
+    }
+
+    /**
+     * Outcome of a search, the caller releases encoded.
+     */
+    static class Result {
+        public PooledByteArrayOutputStream encoded;
+        public int quality;
+        public int attempts;
+        public boolean fits;
+    }
+
+    private QualitySearch() {
+    }
+
+    /**
+     * @param maxQuality the highest quality to consider, the requested one
+     * @param maxBytes   the budget of the encoded image
+     * @return the best encode that fits, or the smallest one tried if none
+     * does
+     */
+    public static Result search(Encoder encoder, int maxQuality, long maxBytes) {
+        int low = Math.min(MIN_QUALITY, maxQuality);
+        int high = maxQuality;
+        int quality = seed(encoder, low, high, maxBytes);
+        int sizeHint = (int) Math.min(Integer.MAX_VALUE, maxBytes + maxBytes / 4);
+        PooledByteArrayOutputStream attempt = PooledByteArrayOutputStream.obtain(sizeHint);
+        PooledByteArrayOutputStream best = null;
+        Result result = new Result();
+        while (low <= high && result.attempts < MAX_ENCODES) {
+            if (best == null && result.attempts == MAX_ENCODES - 1) {
+                // nothing fitted so far, the last attempt goes to the floor
+                quality = low;
+            }
+            attempt.reset();
+            encoder.encode(quality, attempt);
+            result.attempts++;
+            if (attempt.size() <= maxBytes) {
+                PooledByteArrayOutputStream previous = best;
+                best = attempt;
+                attempt = previous != null ? previous : PooledByteArrayOutputStream.obtain(sizeHint);
+                result.quality = quality;
+                result.fits = true;
+                low = quality + 1;
+            } else {
+                high = quality - 1;
+            }
+            quality = (low + high + 1) / 2;
+        }
+        if (best == null) {
+            // the floor did not fit either, its attempt was the last and goes out
+            best = attempt;
+            result.quality = low;
+        } else {
+            attempt.release();
+        }
+        result.encoded = best;
+        return result;
+    }
+
+    /**
+     * The highest quality whose trial encode, scaled up by the pixel ratio,
+     * fits into the budget.
+     */
+    static int seed(Encoder encoder, int low, int high, long maxBytes) {
+        int width = encoder.width();
+        int height = encoder.height();
+        float scale = (float) TRIAL_SIZE / Math.max(width, height);
+        if (scale >= 0.5f) {
+            // small already, the full encodes are as cheap as a trial
+            return high;
+        }
+        int trialWidth = Math.max(1, Math.round(width * scale));
+        int trialHeight = Math.max(1, Math.round(height * scale));
+        double ratio = (double) width * height / ((double) trialWidth * trialHeight);
+        Encoder trial = encoder.scaled(trialWidth, trialHeight);
+        PooledByteArrayOutputStream out = PooledByteArrayOutputStream.obtain(trialWidth * trialHeight);
+        try {
+            int seed = low;
+            while (low <= high) {
+                int quality = (low + high + 1) / 2;
+                out.reset();
+                trial.encode(quality, out);
+                if (out.size() * ratio <= maxBytes) {
+                    seed = quality;
+                    low = quality + 1;
+                } else {
+                    high = quality - 1;
+                }
+            }
+            return seed;
+        } finally {
+            out.release();
+            trial.release();
+        }
+    }
+}
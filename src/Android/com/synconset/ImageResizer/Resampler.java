@@ -0,0 +1,339 @@
+package com.synconset;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Separable two pass resampling of ARGB pixels held in int arrays, plain Java
+ * so it can be measured off the device. Weight tables are computed once per
+ * resize in 14 bit fixed point, the rows of both passes are split across a
+ * fork/join pool and nothing is allocated per pixel. Downscaling widens the
+ * kernel by the scale factor, so every source pixel contributes and nothing
+ * aliases.
+ */
+class Resampler {
+    public static final int KERNEL_BOX = 0;
+    public static final int KERNEL_BILINEAR = 1;
+    public static final int KERNEL_BICUBIC = 2;
+    public static final int KERNEL_LANCZOS3 = 3;
+
+    private static final int PRECISION_BITS = 14;
+    private static final int ONE = 1 << PRECISION_BITS;
+    private static final int HALF = 1 << (PRECISION_BITS - 1);
+    // Rows handed to one fork/join task at least
+    private static final int MIN_ROWS_PER_TASK = 8;
+
+    private static ForkJoinPool sharedPool;
+
+    private final int kernel;
+    private final ForkJoinPool pool;
+
+    public Resampler(int kernel, ForkJoinPool pool) {
+        this.kernel = kernel;
+        this.pool = pool;
+    }
+
+    public Resampler(int kernel) {
+        this(kernel, sharedPool());
+    }
+
+    public static synchronized ForkJoinPool sharedPool() {
+        if (sharedPool == null) {
+            sharedPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        }
+        return sharedPool;
+    }
+
+    /**
+     * Maps "box", "bilinear", "bicubic" and "lanczos3" to their kernel.
+     */
+    public static int kernelOf(String name, int defaultKernel) {
+        if ("box".equals(name)) {
+            return KERNEL_BOX;
+        } else if ("bilinear".equals(name)) {
+            return KERNEL_BILINEAR;
+        } else if ("bicubic".equals(name)) {
+            return KERNEL_BICUBIC;
+        } else if ("lanczos3".equals(name)) {
+            return KERNEL_LANCZOS3;
+        }
+        return defaultKernel;
+    }
+
+    /**
+     * Resizes src to targetWidth x targetHeight and writes the result in the
+     * given EXIF orientation, so dst is targetHeight wide for the orientations
+     * that swap the dimensions.
+     *
+     * @param src      source pixels, premultiplied in place if hasAlpha is set
+     * @param dst      receives targetWidth * targetHeight pixels
+     * @param hasAlpha whether the pixels are translucent, colours are then
+     *                 filtered premultiplied so transparent pixels do not bleed
+     */
+    public void resize(int[] src, int sourceWidth, int sourceHeight, int[] dst, int targetWidth, int targetHeight,
+                       int orientation, boolean hasAlpha) {
+        if (hasAlpha) {
+            premultiply(src, sourceWidth * sourceHeight);
+        }
+        final Weights horizontal = new Weights(kernel, sourceWidth, targetWidth);
+        final Weights vertical = new Weights(kernel, sourceHeight, targetHeight);
+        final int[] temp = new int[targetWidth * sourceHeight];
+        pool.invoke(new HorizontalPass(src, sourceWidth, temp, targetWidth, horizontal, rowsPerTask(sourceHeight), 0, sourceHeight));
+        pool.invoke(new VerticalPass(temp, targetWidth, dst, targetHeight, vertical, orientation, rowsPerTask(targetHeight), 0, targetHeight));
+        if (hasAlpha) {
+            unpremultiply(dst, targetWidth * targetHeight);
+        }
+    }
+
+    static double kernelSupport(int kernel) {
+        switch (kernel) {
+            case KERNEL_BOX:
+                return 0.5;
+            case KERNEL_BILINEAR:
+                return 1.0;
+            case KERNEL_BICUBIC:
+                return 2.0;
+            default:
+                return 3.0;
+        }
+    }
+
+    static double kernelWeight(int kernel, double x) {
+        x = Math.abs(x);
+        switch (kernel) {
+            case KERNEL_BOX:
+                return x < 0.5 ? 1.0 : 0.0;
+            case KERNEL_BILINEAR:
+                return x < 1.0 ? 1.0 - x : 0.0;
+            case KERNEL_BICUBIC:
+                // Catmull-Rom, a = -0.5
+                if (x < 1.0) {
+                    return (1.5 * x - 2.5) * x * x + 1.0;
+                } else if (x < 2.0) {
+                    return ((-0.5 * x + 2.5) * x - 4.0) * x + 2.0;
+                }
+                return 0.0;
+            default:
+                return x < 3.0 ? sinc(x) * sinc(x / 3.0) : 0.0;
+        }
+    }
+
+    private static double sinc(double x) {
+        if (x == 0.0) {
+            return 1.0;
+        }
+        x *= Math.PI;
+        return Math.sin(x) / x;
+    }
+
+    /**
+     * Fixed point weights of one direction: every target pixel reads taps
+     * consecutive source pixels starting at start[i].
+     */
+    static final class Weights {
+        final int taps;
+        final int[] start;
+        final int[] count;
+        final int[] weights;
+
+        Weights(int kernel, int sourceSize, int targetSize) {
+            double scale = (double) sourceSize / targetSize;
+            double filterScale = Math.max(1.0, scale);
+            double support = kernelSupport(kernel) * filterScale;
+            taps = (int) Math.ceil(support) * 2 + 1;
+            start = new int[targetSize];
+            count = new int[targetSize];
+            weights = new int[targetSize * taps];
+            double[] raw = new double[taps];
+            for (int i = 0; i < targetSize; i++) {
+                double center = (i + 0.5) * scale;
+                int min = Math.max(0, (int) Math.floor(center - support + 0.5));
+                int max = Math.min(sourceSize, (int) Math.floor(center + support + 0.5));
+                int n = Math.min(taps, max - min);
+                double total = 0.0;
+                for (int k = 0; k < n; k++) {
+                    raw[k] = kernelWeight(kernel, (min + k - center + 0.5) / filterScale);
+                    total += raw[k];
+                }
+                if (total == 0.0) {
+                    // narrower than a pixel, take the nearest one
+                    min = Math.min(sourceSize - 1, (int) center);
+                    n = 1;
+                    raw[0] = 1.0;
+                    total = 1.0;
+                }
+                start[i] = min;
+                count[i] = n;
+                int sum = 0;
+                int offset = i * taps;
+                for (int k = 0; k < n; k++) {
+                    int weight = (int) Math.round(raw[k] / total * ONE);
+                    weights[offset + k] = weight;
+                    sum += weight;
+                }
+                // rounding leftovers go to the centre tap so flat areas stay flat
+                weights[offset + n / 2] += ONE - sum;
+            }
+        }
+    }
+
+    private static int clamp(int value) {
+        value = (value + HALF) >> PRECISION_BITS;
+        return value < 0 ? 0 : (value > 255 ? 255 : value);
+    }
+
+    private int rowsPerTask(int rows) {
+        // a few tasks per worker, so uneven rows still balance
+        return Math.max(MIN_ROWS_PER_TASK, rows / (pool.getParallelism() * 4));
+    }
+
+    @SuppressWarnings("serial")
+    private static final class HorizontalPass extends RecursiveAction {
+        private final int[] src;
+        private final int sourceWidth;
+        private final int[] dst;
+        private final int targetWidth;
+        private final Weights weights;
+        private final int grain;
+        private final int from;
+        private final int to;
+
+        HorizontalPass(int[] src, int sourceWidth, int[] dst, int targetWidth, Weights weights, int grain, int from, int to) {
+            this.src = src;
+            this.sourceWidth = sourceWidth;
+            this.dst = dst;
+            this.targetWidth = targetWidth;
+            this.weights = weights;
+            this.grain = grain;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > grain) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new HorizontalPass(src, sourceWidth, dst, targetWidth, weights, grain, from, middle),
+                        new HorizontalPass(src, sourceWidth, dst, targetWidth, weights, grain, middle, to));
+                return;
+            }
+            int taps = weights.taps;
+            for (int y = from; y < to; y++) {
+                int row = y * sourceWidth;
+                int out = y * targetWidth;
+                for (int x = 0; x < targetWidth; x++) {
+                    int a = 0;
+                    int r = 0;
+                    int g = 0;
+                    int b = 0;
+                    int index = row + weights.start[x];
+                    int offset = x * taps;
+                    int n = weights.count[x];
+                    for (int k = 0; k < n; k++) {
+                        int pixel = src[index + k];
+                        int weight = weights.weights[offset + k];
+                        a += (pixel >>> 24) * weight;
+                        r += ((pixel >> 16) & 0xff) * weight;
+                        g += ((pixel >> 8) & 0xff) * weight;
+                        b += (pixel & 0xff) * weight;
+                    }
+                    dst[out + x] = (clamp(a) << 24) | (clamp(r) << 16) | (clamp(g) << 8) | clamp(b);
+                }
+            }
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private static final class VerticalPass extends RecursiveAction {
+        private final int[] src;
+        private final int width;
+        private final int[] dst;
+        private final int targetHeight;
+        private final Weights weights;
+        private final int orientation;
+        private final int grain;
+        private final int from;
+        private final int to;
+
+        VerticalPass(int[] src, int width, int[] dst, int targetHeight, Weights weights, int orientation, int grain, int from, int to) {
+            this.src = src;
+            this.width = width;
+            this.dst = dst;
+            this.targetHeight = targetHeight;
+            this.weights = weights;
+            this.orientation = orientation;
+            this.grain = grain;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > grain) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new VerticalPass(src, width, dst, targetHeight, weights, orientation, grain, from, middle),
+                        new VerticalPass(src, width, dst, targetHeight, weights, orientation, grain, middle, to));
+                return;
+            }
+            // stored (x, y) lands at displayed index origin(y) + x * step
+            float[] m = new float[6];
+            Orientation.transform(orientation, width, targetHeight, m);
+            int displayedWidth = Orientation.isTransposed(orientation) ? targetHeight : width;
+            int offsetX = (int) (m[2] + (m[0] + m[1] - 1) * 0.5f);
+            int offsetY = (int) (m[5] + (m[3] + m[4] - 1) * 0.5f);
+            int step = (int) m[3] * displayedWidth + (int) m[0];
+            int taps = weights.taps;
+            for (int y = from; y < to; y++) {
+                int origin = ((int) m[4] * y + offsetY) * displayedWidth + (int) m[1] * y + offsetX;
+                int first = weights.start[y] * width;
+                int offset = y * taps;
+                int n = weights.count[y];
+                for (int x = 0; x < width; x++) {
+                    int a = 0;
+                    int r = 0;
+                    int g = 0;
+                    int b = 0;
+                    int index = first + x;
+                    for (int k = 0; k < n; k++) {
+                        int pixel = src[index];
+                        int weight = weights.weights[offset + k];
+                        a += (pixel >>> 24) * weight;
+                        r += ((pixel >> 16) & 0xff) * weight;
+                        g += ((pixel >> 8) & 0xff) * weight;
+                        b += (pixel & 0xff) * weight;
+                        index += width;
+                    }
+                    dst[origin + x * step] = (clamp(a) << 24) | (clamp(r) << 16) | (clamp(g) << 8) | clamp(b);
+                }
+            }
+        }
+    }
+
+    static void premultiply(int[] pixels, int length) {
+        for (int i = 0; i < length; i++) {
+            int pixel = pixels[i];
+            int a = pixel >>> 24;
+            if (a != 255) {
+                int r = ((pixel >> 16) & 0xff) * a / 255;
+                int g = ((pixel >> 8) & 0xff) * a / 255;
+                int b = (pixel & 0xff) * a / 255;
+                pixels[i] = (a << 24) | (r << 16) | (g << 8) | b;
+            }
+        }
+    }
+
+    static void unpremultiply(int[] pixels, int length) {
+        for (int i = 0; i < length; i++) {
+            int pixel = pixels[i];
+            int a = pixel >>> 24;
+            if (a == 0) {
+                pixels[i] = 0;
+            } else if (a != 255) {
+                int r = Math.min(255, ((pixel >> 16) & 0xff) * 255 / a);
+                int g = Math.min(255, ((pixel >> 8) & 0xff) * 255 / a);
+                int b = Math.min(255, (pixel & 0xff) * 255 / a);
+                pixels[i] = (a << 24) | (r << 16) | (g << 8) | b;
+            }
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package com.synconset;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The plugin's own worker pool. Tasks are queued by priority lane (visible
+ * before prefetch before background, first come first served within a lane),
+ * the queue is bounded and every task can be cancelled by its request id,
+ * whether it is still queued or already running.
+ */
+class ResizeExecutor {
+    private static final String TAG = "ResizeExecutor";
+
+    public static final int PRIORITY_VISIBLE = 0;
+    public static final int PRIORITY_PREFETCH = 1;
+    public static final int PRIORITY_BACKGROUND = 2;
+
+    /**
+     * Something that can be stopped when its task is cancelled.
+     */
+    interface Cancellable {
+        void cancel();
+    }
+
+    private final ThreadPoolExecutor pool;
+    private final int maxQueued;
+    private final AtomicLong sequence = new AtomicLong();
+    // tasks from submission until their result has been sent
+    private final ConcurrentHashMap<Task, Boolean> active = new ConcurrentHashMap<Task, Boolean>();
+
+    public ResizeExecutor(int parallelism, int maxQueued) {
+        this.maxQueued = maxQueued;
+        this.pool = new ThreadPoolExecutor(parallelism, parallelism, 30, TimeUnit.SECONDS,
+                new PriorityBlockingQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "ImageResizer-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        pool.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Maps "visible", "prefetch" and "background" to their lane.
+     */
+    public static int priorityOf(String name, int defaultPriority) {
+        if ("visible".equals(name)) {
+            return PRIORITY_VISIBLE;
+        } else if ("prefetch".equals(name)) {
+            return PRIORITY_PREFETCH;
+        } else if ("background".equals(name)) {
+            return PRIORITY_BACKGROUND;
+        }
+        return defaultPriority;
+    }
+
+    public Task newTask(String requestId, int priority, Runnable work) {
+        return new Task(requestId, priority, sequence.getAndIncrement(), work);
+    }
+
+    /**
+     * Queues a task.
+     *
+     * @param bounded whether the task counts against the queue limit, work that
+     *                is already rate limited by its caller may bypass it
+     * @return false if the queue is full
+     */
+    public boolean execute(Task task, boolean bounded) {
+        if (bounded && pool.getQueue().size() >= maxQueued) {
+            return false;
+        }
+        active.put(task, Boolean.TRUE);
+        pool.execute(task);
+        return true;
+    }
+
+    /**
+     * Marks a task as done once its result has been sent.
+     */
+    public void finished(Task task) {
+        active.remove(task);
+    }
+
+    /**
+     * Cancels every task of the request, including the items of a batch whose
+     * ids are prefixed with "requestId/".
+     *
+     * @return the number of tasks cancelled
+     */
+    public int cancel(String requestId) {
+        List<Task> matches = new ArrayList<Task>();
+        for (Task task : active.keySet()) {
+            if (task.requestId != null && (task.requestId.equals(requestId) || task.requestId.startsWith(requestId + "/"))) {
+                matches.add(task);
+            }
+        }
+        for (Task task : matches) {
+            if (pool.remove(task)) {
+                Log.d(TAG, "Removed queued " + task.requestId);
+            }
+            task.cancel();
+            active.remove(task);
+        }
+        return matches.size();
+    }
+
+    public int queued() {
+        return pool.getQueue().size();
+    }
+
+    public void shutdown() {
+        for (Task task : active.keySet()) {
+            task.cancel();
+        }
+        active.clear();
+        pool.shutdownNow();
+    }
+
+    static class Task implements Runnable, Comparable<Task>, MemoryGovernor.Waiter {
+        final String requestId;
+        final int priority;
+        final long sequence;
+        private final Runnable work;
+        private final List<Cancellable> cancelHooks = new ArrayList<Cancellable>(2);
+        private volatile boolean cancelled;
+
+        Task(String requestId, int priority, long sequence, Runnable work) {
+            this.requestId = requestId;
+            this.priority = priority;
+            this.sequence = sequence;
+            this.work = work;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        /**
+         * Registers something to stop on cancellation, runs it right away if the
+         * task has been cancelled already.
+         */
+        public void addCancelHook(Cancellable hook) {
+            synchronized (cancelHooks) {
+                if (!cancelled) {
+                    cancelHooks.add(hook);
+                    return;
+                }
+            }
+            hook.cancel();
+        }
+
+        public void removeCancelHook(Cancellable hook) {
+            synchronized (cancelHooks) {
+                cancelHooks.remove(hook);
+            }
+        }
+
+        void cancel() {
+            List<Cancellable> hooks;
+            synchronized (cancelHooks) {
+                if (cancelled) {
+                    return;
+                }
+                cancelled = true;
+                hooks = new ArrayList<Cancellable>(cancelHooks);
+                cancelHooks.clear();
+            }
+            for (Cancellable hook : hooks) {
+                try {
+                    hook.cancel();
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "Cancelling " + requestId + " failed", e);
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            if (!cancelled) {
+                work.run();
+            }
+        }
+
+        @Override
+        public int compareTo(Task other) {
+            if (priority != other.priority) {
+                return priority < other.priority ? -1 : 1;
+            }
+            return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+        }
+    }
+}
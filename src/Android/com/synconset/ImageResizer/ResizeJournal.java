@@ -0,0 +1,251 @@
+package com.synconset;
+
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Append-only record of a batch that survives the process. The first line
+ * holds the parameters of the batch, every following line one finished item,
+ * {"index": 3, "result": {...}} or {"index": 3, "error": "..."}, and a last
+ * {"done": true} once the batch is over. A later line for the same index
+ * replaces an earlier one. Lines are flushed to the system as they are
+ * written, so they outlive the process being killed, a line torn by a crash
+ * is skipped when the journal is read back, and reading it rewrites it
+ * without torn or replaced lines.
+ */
+class ResizeJournal {
+    private static final String TAG = "ImageResizerJournal";
+    private static final String SUFFIX = ".journal";
+
+    private final File file;
+    private final JSONObject params;
+    private final JSONObject[] records;
+    private boolean done;
+    private Writer writer;
+
+    private ResizeJournal(File file, JSONObject params) throws JSONException {
+        this.file = file;
+        this.params = params;
+        this.records = new JSONObject[params.getJSONArray("images").length()];
+    }
+
+    /**
+     * Starts the journal of a new batch.
+     */
+    public static ResizeJournal create(File directory, JSONObject params) throws IOException, JSONException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create " + directory);
+        }
+        ResizeJournal journal = new ResizeJournal(new File(directory, UUID.randomUUID().toString() + SUFFIX), params);
+        journal.rewrite();
+        return journal;
+    }
+
+    /**
+     * Reads back the journals of all batches that were not collected yet.
+     * Damaged journals and those of batches that ended more than maxAgeMillis
+     * ago are deleted.
+     */
+    public static List<ResizeJournal> openAll(File directory, long maxAgeMillis) {
+        List<ResizeJournal> journals = new ArrayList<ResizeJournal>();
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return journals;
+        }
+        long now = System.currentTimeMillis();
+        for (File file : files) {
+            if (!file.getName().endsWith(SUFFIX)) {
+                continue;
+            }
+            try {
+                ResizeJournal journal = read(file);
+                if (journal.done && now - file.lastModified() > maxAgeMillis) {
+                    journal.delete();
+                    continue;
+                }
+                journal.rewrite();
+                journals.add(journal);
+            } catch (IOException e) {
+                Log.e(TAG, "Could not read " + file, e);
+                file.delete();
+            } catch (JSONException e) {
+                Log.e(TAG, "Damaged journal " + file, e);
+                file.delete();
+            }
+        }
+        return journals;
+    }
+
+    private static ResizeJournal read(File file) throws IOException, JSONException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        try {
+            String header = reader.readLine();
+            if (header == null) {
+                throw new JSONException("empty journal");
+            }
+            ResizeJournal journal = new ResizeJournal(file, new JSONObject(header));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                JSONObject record;
+                try {
+                    record = new JSONObject(line);
+                } catch (JSONException e) {
+                    // torn by a crash while it was written
+                    continue;
+                }
+                if (record.optBoolean("done")) {
+                    journal.done = true;
+                    continue;
+                }
+                int index = record.optInt("index", -1);
+                if (index >= 0 && index < journal.records.length) {
+                    journal.records[index] = record;
+                }
+            }
+            return journal;
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * The parameters the batch was started with.
+     */
+    public JSONObject params() {
+        return params;
+    }
+
+    public String requestId() {
+        return params.optString("requestId", null);
+    }
+
+    public synchronized boolean isDone() {
+        return done;
+    }
+
+    /**
+     * @return the last record of an item, null if it has not finished
+     */
+    public synchronized JSONObject record(int index) {
+        return records[index];
+    }
+
+    /**
+     * Records a finished item.
+     *
+     * @param result the item's result, null if it failed
+     * @param error  the error of a failed item, null otherwise
+     */
+    public synchronized void append(int index, JSONObject result, String error) {
+        JSONObject record = new JSONObject();
+        try {
+            record.put("index", index);
+            if (error == null) {
+                record.put("result", result);
+            } else {
+                record.put("error", error);
+            }
+        } catch (JSONException e) {
+            Log.d(TAG, e.getMessage());
+            return;
+        }
+        records[index] = record;
+        write(record);
+    }
+
+    /**
+     * Records the end of the batch, its results are kept until delete().
+     */
+    public synchronized void finish() {
+        done = true;
+        JSONObject record = new JSONObject();
+        try {
+            record.put("done", true);
+        } catch (JSONException e) {
+            Log.d(TAG, e.getMessage());
+            return;
+        }
+        write(record);
+    }
+
+    /**
+     * Stops writing, the journal stays for the next start.
+     */
+    public synchronized void close() {
+        if (writer != null) {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                Log.d(TAG, e.getMessage());
+            }
+            writer = null;
+        }
+    }
+
+    public synchronized void delete() {
+        close();
+        if (file.exists() && !file.delete()) {
+            Log.d(TAG, "Could not delete " + file);
+        }
+    }
+
+    private void write(JSONObject record) {
+        if (writer == null) {
+            // closed, the batch belongs to a plugin that went away
+            return;
+        }
+        try {
+            writer.write(record.toString());
+            writer.write('\n');
+            writer.flush();
+        } catch (IOException e) {
+            Log.e(TAG, "Could not write " + file, e);
+        }
+    }
+
+    /**
+     * Writes the header and the current records to a temporary file, which
+     * is synced and renamed into place, then appends to it.
+     */
+    private void rewrite() throws IOException {
+        File temp = new File(file.getParentFile(), file.getName() + ".tmp");
+        FileOutputStream out = new FileOutputStream(temp);
+        try {
+            Writer tempWriter = new OutputStreamWriter(out, "UTF-8");
+            tempWriter.write(params.toString());
+            tempWriter.write('\n');
+            for (JSONObject record : records) {
+                if (record != null) {
+                    tempWriter.write(record.toString());
+                    tempWriter.write('\n');
+                }
+            }
+            if (done) {
+                tempWriter.write("{\"done\":true}\n");
+            }
+            tempWriter.flush();
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Could not rename " + temp);
+        }
+        writer = new OutputStreamWriter(new FileOutputStream(file, true), "UTF-8");
+    }
+}
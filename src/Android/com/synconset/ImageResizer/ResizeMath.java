@@ -0,0 +1,91 @@
+package com.synconset;
+
+/**
+ * Size and sample size arithmetic of the resize, free of Android types so it
+ * can be benchmarked on a plain JVM.
+ */
+class ResizeMath {
+    static final String RESIZE_TYPE_FACTOR = "factorResize";
+    static final String RESIZE_TYPE_MIN_PIXEL = "minPixelResize";
+    static final String RESIZE_TYPE_MAX_PIXEL = "maxPixelResize";
+    static final int NO_MAX_SAMPLE_SIZE = -1;
+
+    private ResizeMath() {
+    }
+
+    /**
+     * Scale factors that take an image of width x height to the desired size.
+     *
+     * @return the width and the height factor
+     */
+    public static float[] calculateFactors(String resizeType, float desiredWidth, float desiredHeight, int width, int height) {
+        float widthFactor;
+        float heightFactor;
+        if (resizeType.equals(RESIZE_TYPE_MIN_PIXEL)) {
+            widthFactor = desiredWidth / (float) width;
+            heightFactor = desiredHeight / (float) height;
+            if (widthFactor > heightFactor && widthFactor <= 1.0) {
+                heightFactor = widthFactor;
+            } else if (heightFactor <= 1.0) {
+                widthFactor = heightFactor;
+            } else {
+                widthFactor = 1.0f;
+                heightFactor = 1.0f;
+            }
+        } else if (resizeType.equals(RESIZE_TYPE_MAX_PIXEL)) {
+            widthFactor = desiredWidth / (float) width;
+            heightFactor = desiredHeight / (float) height;
+            if (widthFactor == 0.0) {
+                widthFactor = heightFactor;
+            } else if (heightFactor == 0.0) {
+                heightFactor = widthFactor;
+            } else if (widthFactor > heightFactor) {
+                widthFactor = heightFactor; // scale to fit height
+            } else {
+                heightFactor = widthFactor; // scale to fit width
+            }
+        } else {
+            widthFactor = desiredWidth;
+            heightFactor = desiredHeight;
+        }
+        return new float[]{widthFactor, heightFactor};
+    }
+
+    /**
+     * Power of two sample size that brings an image of width x height down to
+     * about the display size.
+     *
+     * @param maxSampleSize upper limit, NO_MAX_SAMPLE_SIZE for none
+     * @param isFillScreen  also try the display turned by 90 degrees and take
+     *                      the smaller sample size
+     */
+    public static int calculateInSampleSize(int width, int height, int displayWidth, int displayHeight, int maxSampleSize, boolean isFillScreen) {
+        int inSampleSize = 1;
+
+        if (height > displayHeight || width > displayWidth) {
+
+            final int halfHeight = height / 2;
+            final int halfWidth = width / 2;
+
+            while ((halfHeight / inSampleSize) > displayHeight || (halfWidth / inSampleSize) > displayWidth) {
+                inSampleSize *= 2;
+            }
+
+            // Check inSampleSize for other orientation, pick the small one
+            if (isFillScreen) {
+                int orientationInSampleSize = 1;
+                while ((halfHeight / orientationInSampleSize) > displayWidth || (halfWidth / orientationInSampleSize) > displayHeight)
+                    orientationInSampleSize *= 2;
+                inSampleSize = (orientationInSampleSize < inSampleSize) ? orientationInSampleSize : inSampleSize;
+            }
+        }
+
+        if (maxSampleSize != NO_MAX_SAMPLE_SIZE) {
+            if (inSampleSize > maxSampleSize) {
+                inSampleSize = maxSampleSize;
+            }
+        }
+
+        return inSampleSize;
+    }
+}
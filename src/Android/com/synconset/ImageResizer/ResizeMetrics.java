@@ -0,0 +1,249 @@
+package com.synconset;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Per stage timings and sizes of the plugin's requests. Every request that is
+ * measured carries a {@link Timer}, finished timers are folded into
+ * histograms of fixed atomic buckets, so recording neither locks nor
+ * allocates. Requests that are not measured have no timer at all.
+ */
+class ResizeMetrics {
+    public static final int STAGE_QUEUE = 0;
+    public static final int STAGE_HEADER = 1;
+    public static final int STAGE_EXIF = 2;
+    public static final int STAGE_DECODE = 3;
+    public static final int STAGE_FETCH = 4;
+    public static final int STAGE_SCALE = 5;
+    public static final int STAGE_ENCODE = 6;
+    public static final int STAGE_BASE64 = 7;
+    public static final int STAGE_WRITE = 8;
+    public static final int STAGE_PREVIEW = 9;
+    public static final int STAGE_TOTAL = 10;
+    private static final String[] STAGE_NAMES = {
+            "queueWait", "header", "exif", "decode", "fetch", "scale", "encode", "base64", "write", "preview", "total"
+    };
+
+    private final Histogram[] stages = new Histogram[STAGE_NAMES.length];
+    private final Histogram bytesIn = new Histogram();
+    private final Histogram bytesOut = new Histogram();
+    private final Histogram peakBitmapBytes = new Histogram();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    public ResizeMetrics() {
+        for (int i = 0; i < stages.length; i++) {
+            stages[i] = new Histogram();
+        }
+    }
+
+    /**
+     * Timings and sizes of a single request. Stages are timed back to back:
+     * lap() charges the time since the previous lap to the given stage.
+     */
+    static final class Timer {
+        private final long[] nanos = new long[STAGE_NAMES.length];
+        private final long started;
+        private long last;
+        private long bytesIn;
+        private long bytesOut;
+        private long peakBitmapBytes;
+
+        Timer() {
+            started = System.nanoTime();
+            last = started;
+        }
+
+        public void lap(int stage) {
+            long now = System.nanoTime();
+            nanos[stage] += now - last;
+            last = now;
+        }
+
+        public void bytesIn(long bytes) {
+            bytesIn = bytes;
+        }
+
+        /**
+         * Adds the size of an output, requests with several outputs call it
+         * once per output.
+         */
+        public void bytesOut(long bytes) {
+            bytesOut += bytes;
+        }
+
+        /**
+         * Notes the bitmap memory held at once, the largest value is kept.
+         */
+        public void bitmapBytes(long bytes) {
+            if (bytes > peakBitmapBytes) {
+                peakBitmapBytes = bytes;
+            }
+        }
+
+        public long total() {
+            return System.nanoTime() - started;
+        }
+
+        /**
+         * Stages that took any time, in milliseconds.
+         */
+        public JSONObject toJson() throws JSONException {
+            JSONObject timings = new JSONObject();
+            for (int i = 0; i < STAGE_TOTAL; i++) {
+                if (nanos[i] > 0) {
+                    timings.put(STAGE_NAMES[i], nanos[i] / 1e6);
+                }
+            }
+            timings.put(STAGE_NAMES[STAGE_TOTAL], total() / 1e6);
+            return timings;
+        }
+    }
+
+    public void record(Timer timer, boolean succeeded) {
+        requests.incrementAndGet();
+        if (!succeeded) {
+            failures.incrementAndGet();
+        }
+        for (int i = 0; i < STAGE_TOTAL; i++) {
+            if (timer.nanos[i] > 0) {
+                stages[i].record(timer.nanos[i] / 1000);
+            }
+        }
+        stages[STAGE_TOTAL].record(timer.total() / 1000);
+        if (timer.bytesIn > 0) {
+            bytesIn.record(timer.bytesIn);
+        }
+        if (timer.bytesOut > 0) {
+            bytesOut.record(timer.bytesOut);
+        }
+        if (timer.peakBitmapBytes > 0) {
+            peakBitmapBytes.record(timer.peakBitmapBytes);
+        }
+    }
+
+    public void reset() {
+        requests.set(0);
+        failures.set(0);
+        for (Histogram stage : stages) {
+            stage.reset();
+        }
+        bytesIn.reset();
+        bytesOut.reset();
+        peakBitmapBytes.reset();
+    }
+
+    /**
+     * Stage timings in milliseconds, sizes in bytes.
+     */
+    public JSONObject toJson() throws JSONException {
+        JSONObject stats = new JSONObject();
+        stats.put("requests", requests.get());
+        stats.put("failures", failures.get());
+        JSONObject timings = new JSONObject();
+        for (int i = 0; i < stages.length; i++) {
+            if (stages[i].count() > 0) {
+                timings.put(STAGE_NAMES[i], stages[i].toJson(1000.0));
+            }
+        }
+        stats.put("timings", timings);
+        stats.put("bytesIn", bytesIn.toJson(1.0));
+        stats.put("bytesOut", bytesOut.toJson(1.0));
+        stats.put("peakBitmapBytes", peakBitmapBytes.toJson(1.0));
+        return stats;
+    }
+
+    /**
+     * Log-linear histogram of non negative values: eight buckets per power of
+     * two, so percentiles are exact to within 1/16 of the value.
+     */
+    static final class Histogram {
+        private static final int SUB_BUCKETS = 8;
+        private static final int BUCKETS = 61 * SUB_BUCKETS;
+
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong sum = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+
+        public void record(long value) {
+            if (value < 0) {
+                value = 0;
+            }
+            counts.incrementAndGet(bucket(value));
+            count.incrementAndGet();
+            sum.addAndGet(value);
+            long previous;
+            while (value > (previous = max.get()) && !max.compareAndSet(previous, value)) {
+                // lost against another thread, try again
+            }
+        }
+
+        public long count() {
+            return count.get();
+        }
+
+        public void reset() {
+            for (int i = 0; i < BUCKETS; i++) {
+                counts.set(i, 0);
+            }
+            count.set(0);
+            sum.set(0);
+            max.set(0);
+        }
+
+        /**
+         * @param quantile between 0 and 1
+         * @return the middle of the bucket holding the quantile
+         */
+        public long percentile(double quantile) {
+            long total = count.get();
+            if (total == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(quantile * total);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts.get(i);
+                if (seen >= Math.max(1, rank)) {
+                    return Math.min(max.get(), middle(i));
+                }
+            }
+            return max.get();
+        }
+
+        static int bucket(long value) {
+            if (value < SUB_BUCKETS) {
+                return (int) value;
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            int sub = (int) ((value >>> (exponent - 3)) & (SUB_BUCKETS - 1));
+            return (exponent - 2) * SUB_BUCKETS + sub;
+        }
+
+        static long middle(int bucket) {
+            if (bucket < SUB_BUCKETS) {
+                return bucket;
+            }
+            int exponent = bucket / SUB_BUCKETS + 2;
+            long lower = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (exponent - 3);
+            return lower + (1L << (exponent - 3)) / 2;
+        }
+
+        JSONObject toJson(double divisor) throws JSONException {
+            JSONObject json = new JSONObject();
+            long total = count.get();
+            json.put("count", total);
+            json.put("mean", total > 0 ? sum.get() / (double) total / divisor : 0);
+            json.put("p50", percentile(0.50) / divisor);
+            json.put("p95", percentile(0.95) / divisor);
+            json.put("p99", percentile(0.99) / divisor);
+            json.put("max", max.get() / divisor);
+            return json;
+        }
+    }
+}
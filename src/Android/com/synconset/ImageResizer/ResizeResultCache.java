@@ -0,0 +1,335 @@
+package com.synconset;
+
+import android.util.Log;
+
+import org.apache.cordova.CallbackContext;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * On-disk cache of stored resize results, evicted least recently used first
+ * once the byte budget is exceeded. The index is kept in a small text file
+ * next to the entries so the cache survives restarts, and requests for a key
+ * that is being computed wait for that computation instead of repeating it.
+ */
+class ResizeResultCache {
+    private static final String TAG = "ImageResizerCache";
+    private static final String INDEX_FILE = "index";
+    // Request parameters that change the resized output
+    private static final String[] KEY_PARAMS = {"width", "height", "format", "quality", "resizeType", "resizeQuality",
+            "resizeEngine", "resizeKernel", "maxBytes", "lossless", "effort", "crop", "fit", "gravity"};
+
+    private final File directory;
+    private final long maxBytes;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(64, 0.75f, true);
+    private final Map<String, List<CallbackContext>> inFlight = new HashMap<String, List<CallbackContext>>();
+    private long size;
+    private boolean dirty;
+
+    static class Entry {
+        final String key;
+        final File file;
+        final long length;
+        final int width;
+        final int height;
+        // further result fields, e.g. the quality a maxBytes search chose
+        final JSONObject fields;
+
+        Entry(String key, File file, long length, int width, int height, JSONObject fields) {
+            this.key = key;
+            this.file = file;
+            this.length = length;
+            this.width = width;
+            this.height = height;
+            this.fields = fields;
+        }
+    }
+
+    public ResizeResultCache(File directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            Log.e(TAG, "Could not create " + directory);
+        }
+        readIndex();
+    }
+
+    /**
+     * Builds the key of a resize of the given source file.
+     */
+    public static String key(File source, JSONObject params) {
+        StringBuilder builder = new StringBuilder(source.getAbsolutePath());
+        builder.append('|').append(source.lastModified());
+        builder.append('|').append(source.length());
+        for (String name : KEY_PARAMS) {
+            builder.append('|');
+            appendValue(builder, params.opt(name));
+        }
+        return sha1(builder.toString());
+    }
+
+    /**
+     * Objects, e.g. a crop, by their sorted fields, so equal ones give the
+     * same key whatever order their fields came in.
+     */
+    private static void appendValue(StringBuilder builder, Object value) {
+        if (!(value instanceof JSONObject)) {
+            builder.append(value);
+            return;
+        }
+        JSONObject object = (JSONObject) value;
+        List<String> names = new ArrayList<String>();
+        Iterator<String> keys = object.keys();
+        while (keys.hasNext()) {
+            names.add(keys.next());
+        }
+        Collections.sort(names);
+        builder.append('{');
+        for (String name : names) {
+            builder.append(name).append('=');
+            appendValue(builder, object.opt(name));
+            builder.append(',');
+        }
+        builder.append('}');
+    }
+
+    public synchronized Entry get(String key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (!entry.file.exists()) {
+            // removed behind our back, e.g. by the system cleaning the cache dir
+            entries.remove(key);
+            size -= entry.length;
+            dirty = true;
+            return null;
+        }
+        dirty = true;
+        return entry;
+    }
+
+    /**
+     * Moves a freshly stored result into the cache, or copies it if the file
+     * belongs to the caller, e.g. one in a directory of its choice or one
+     * named by its content that other requests may share.
+     *
+     * @return the cache entry, null if the file could not be moved or copied
+     */
+    public synchronized Entry put(String key, File result, int width, int height, JSONObject fields, boolean copy) {
+        String name = result.getName();
+        int dot = name.lastIndexOf('.');
+        File target = new File(directory, dot >= 0 ? key + name.substring(dot) : key);
+        if (!result.equals(target) && !(copy ? copyFile(result, target) : moveFile(result, target))) {
+            return null;
+        }
+        Entry previous = entries.remove(key);
+        if (previous != null) {
+            size -= previous.length;
+        }
+        Entry entry = new Entry(key, target, target.length(), width, height, fields);
+        entries.put(key, entry);
+        size += entry.length;
+        trimToSize();
+        writeIndex();
+        return entry;
+    }
+
+    /**
+     * Registers interest in a key.
+     *
+     * @return true if the key is already being computed, the callback then
+     * gets the result of that computation through complete()
+     */
+    public synchronized boolean join(String key, CallbackContext callbackContext) {
+        List<CallbackContext> waiting = inFlight.get(key);
+        if (waiting != null) {
+            waiting.add(callbackContext);
+            return true;
+        }
+        inFlight.put(key, new ArrayList<CallbackContext>());
+        return false;
+    }
+
+    /**
+     * Ends the computation of a key.
+     *
+     * @return the callbacks that joined while it was running
+     */
+    public synchronized List<CallbackContext> complete(String key) {
+        List<CallbackContext> waiting = inFlight.remove(key);
+        return waiting != null ? waiting : new ArrayList<CallbackContext>();
+    }
+
+    /**
+     * Persists the LRU order after cache hits.
+     */
+    public synchronized void flush() {
+        if (dirty) {
+            writeIndex();
+        }
+    }
+
+    private void trimToSize() {
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (size > maxBytes && iterator.hasNext()) {
+            Entry eldest = iterator.next();
+            iterator.remove();
+            size -= eldest.length;
+            if (!eldest.file.delete()) {
+                Log.d(TAG, "Could not delete " + eldest.file);
+            }
+        }
+    }
+
+    private void readIndex() {
+        File index = new File(directory, INDEX_FILE);
+        if (!index.exists()) {
+            return;
+        }
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new FileReader(index));
+            String line;
+            // least recently used first, re-inserting keeps that order
+            while ((line = reader.readLine()) != null) {
+                // the result fields come last, as JSON that may hold spaces
+                String[] fields = line.split(" ", 6);
+                if (fields.length < 5) {
+                    continue;
+                }
+                File file = new File(directory, fields[1]);
+                if (!file.exists()) {
+                    continue;
+                }
+                JSONObject resultFields;
+                try {
+                    resultFields = fields.length > 5 ? new JSONObject(fields[5]) : new JSONObject();
+                } catch (JSONException e) {
+                    continue;
+                }
+                Entry entry = new Entry(fields[0], file, file.length(),
+                        Integer.parseInt(fields[3]), Integer.parseInt(fields[4]), resultFields);
+                entries.put(entry.key, entry);
+                size += entry.length;
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Could not read the cache index", e);
+        } catch (NumberFormatException e) {
+            Log.e(TAG, "Damaged cache index", e);
+        } finally {
+            closeQuietly(reader);
+        }
+        trimToSize();
+    }
+
+    private void writeIndex() {
+        File index = new File(directory, INDEX_FILE);
+        File temp = new File(directory, INDEX_FILE + ".tmp");
+        BufferedWriter writer = null;
+        try {
+            writer = new BufferedWriter(new FileWriter(temp));
+            for (Entry entry : entries.values()) {
+                writer.write(entry.key + " " + entry.file.getName() + " " + entry.length + " " + entry.width + " " + entry.height
+                        + " " + entry.fields);
+                writer.newLine();
+            }
+            writer.close();
+            writer = null;
+            if (!temp.renameTo(index)) {
+                Log.e(TAG, "Could not replace the cache index");
+            }
+            dirty = false;
+        } catch (IOException e) {
+            Log.e(TAG, "Could not write the cache index", e);
+        } finally {
+            closeQuietly(writer);
+        }
+    }
+
+    private static boolean moveFile(File from, File to) {
+        if (from.renameTo(to)) {
+            return true;
+        }
+        // different file systems, copy instead
+        if (!copyFile(from, to)) {
+            return false;
+        }
+        from.delete();
+        return true;
+    }
+
+    private static boolean copyFile(File from, File to) {
+        InputStream in = null;
+        OutputStream out = null;
+        try {
+            in = new FileInputStream(from);
+            out = new FileOutputStream(to);
+            byte[] buffer = new byte[16 * 1024];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                out.write(buffer, 0, read);
+            }
+            out.close();
+            out = null;
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, "Could not copy " + from + " into the cache", e);
+            to.delete();
+            return false;
+        } finally {
+            closeQuietly(in);
+            closeQuietly(out);
+        }
+    }
+
+    private static String sha1(String value) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            return hex(digest.digest(value.getBytes("UTF-8")));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static String hex(byte[] hash) {
+        StringBuilder hex = new StringBuilder(hash.length * 2);
+        for (byte b : hash) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16));
+            hex.append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ignore) {
+            }
+        }
+    }
+}
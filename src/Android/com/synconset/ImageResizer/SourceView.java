@@ -0,0 +1,225 @@
+package com.synconset;
+
+import android.content.res.AssetFileDescriptor;
+import android.graphics.BitmapRegionDecoder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A read-only view of a source file, mapped into memory once. Every stream
+ * opened on the view reads the same pages, so probing the header, parsing the
+ * EXIF data and decoding the pixels go to the storage only once. Descriptors
+ * of content and asset URIs are mapped the same way, sources that cannot be
+ * mapped, like pipes, and bytes that are already in memory are held in memory.
+ */
+class SourceView {
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    private final File file;
+    private final ByteBuffer buffer;
+    // open descriptor the view was mapped from, closed with the view, null for none
+    private final AssetFileDescriptor descriptor;
+    // whether the descriptor covers a whole file, which region decoders need
+    private final boolean wholeFile;
+
+    private SourceView(File file, ByteBuffer buffer, AssetFileDescriptor descriptor, boolean wholeFile) {
+        this.file = file;
+        this.buffer = buffer;
+        this.descriptor = descriptor;
+        this.wholeFile = wholeFile;
+    }
+
+    public static SourceView open(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException(file + " is too large to map");
+            }
+            // the mapping stays valid after the channel is closed
+            return new SourceView(file, channel.map(FileChannel.MapMode.READ_ONLY, 0, size), null, false);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Maps the part of a descriptor it covers, e.g. one a ContentResolver or
+     * the AssetManager opened. The view owns the descriptor from now on and
+     * closes it in close().
+     */
+    public static SourceView open(AssetFileDescriptor descriptor) throws IOException {
+        try {
+            // not closed, closing the stream would close the descriptor too
+            FileChannel channel = new FileInputStream(descriptor.getFileDescriptor()).getChannel();
+            long start = descriptor.getStartOffset();
+            long length = descriptor.getLength() != AssetFileDescriptor.UNKNOWN_LENGTH
+                    ? descriptor.getLength() : channel.size() - start;
+            if (length > 0 && length <= Integer.MAX_VALUE) {
+                ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+                // region decoders read the descriptor from its start, so only a whole file will do
+                return new SourceView(null, buffer, descriptor, start == 0);
+            }
+        } catch (IOException e) {
+            // not a regular file, read it below
+        }
+        try {
+            return read(descriptor.createInputStream());
+        } finally {
+            descriptor.close();
+        }
+    }
+
+    /**
+     * Reads a stream that cannot be mapped into memory and closes it.
+     */
+    public static SourceView read(InputStream in) throws IOException {
+        try {
+            byte[] bytes = new byte[Math.max(READ_BUFFER_SIZE, in.available())];
+            int length = 0;
+            int count;
+            while ((count = in.read(bytes, length, bytes.length - length)) != -1) {
+                length += count;
+                if (length == bytes.length) {
+                    byte[] grown = new byte[bytes.length * 2];
+                    System.arraycopy(bytes, 0, grown, 0, length);
+                    bytes = grown;
+                }
+            }
+            return new SourceView(null, ByteBuffer.wrap(bytes, 0, length).slice(), null, false);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * A view of bytes handed over by the caller, it has no file.
+     */
+    public static SourceView wrap(byte[] bytes) {
+        return new SourceView(null, ByteBuffer.wrap(bytes), null, false);
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Whether region decoders can read the source without a copy of it.
+     */
+    public boolean canDecodeRegions() {
+        return file != null || (descriptor != null && wholeFile);
+    }
+
+    /**
+     * A region decoder of the source. Views that cannot decodeRegions() hand
+     * their bytes to it, which it may copy, so a decoder per view is fine
+     * but not one per tile.
+     */
+    public BitmapRegionDecoder newRegionDecoder() throws IOException {
+        if (file != null) {
+            return BitmapRegionDecoder.newInstance(file.getAbsolutePath(), false);
+        } else if (descriptor != null && wholeFile) {
+            return BitmapRegionDecoder.newInstance(descriptor.getFileDescriptor(), false);
+        } else if (buffer.hasArray()) {
+            return BitmapRegionDecoder.newInstance(buffer.array(), buffer.arrayOffset(), buffer.capacity(), false);
+        }
+        return BitmapRegionDecoder.newInstance(openStream(), false);
+    }
+
+    /**
+     * Region decoders of a descriptor share its file offset, so only one of
+     * them may read at a time.
+     */
+    public boolean isSharedDescriptor() {
+        return file == null && descriptor != null && wholeFile;
+    }
+
+    /**
+     * Closes the descriptor the view was opened on, the mapping stays valid.
+     */
+    public void close() {
+        if (descriptor != null) {
+            try {
+                descriptor.close();
+            } catch (IOException ignore) {
+            }
+        }
+    }
+
+    public int length() {
+        return buffer.capacity();
+    }
+
+    @Override
+    public String toString() {
+        return file != null ? file.getAbsolutePath() : buffer.capacity() + " bytes";
+    }
+
+    /**
+     * A new stream over the whole view, independent of any other stream.
+     */
+    public InputStream openStream() {
+        return new ViewInputStream(buffer.duplicate());
+    }
+
+    private static class ViewInputStream extends InputStream {
+        private final ByteBuffer buffer;
+        private int mark;
+
+        ViewInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int count = Math.min(len, buffer.remaining());
+            buffer.get(b, off, count);
+            return count;
+        }
+
+        @Override
+        public long skip(long n) {
+            int count = (int) Math.max(0, Math.min(n, buffer.remaining()));
+            buffer.position(buffer.position() + count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+
+        @Override
+        public boolean markSupported() {
+            return true;
+        }
+
+        @Override
+        public synchronized void mark(int readlimit) {
+            mark = buffer.position();
+        }
+
+        @Override
+        public synchronized void reset() throws IOException {
+            buffer.position(mark);
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.synconset;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Writes a stored image into a temporary file next to its final name and
+ * moves it there once it is complete. The bytes go through a buffer, are
+ * synced to the storage and the file is renamed over the final name in one
+ * step, so readers never see a half written image and concurrent requests
+ * never write into the same file. A digest of the content can be taken on
+ * the way, so identical images get identical names.
+ */
+class StoredImageWriter {
+    public static final String NAMING_FILENAME = "filename";
+    public static final String NAMING_CONTENT_HASH = "contentHash";
+    public static final String NAMING_REQUEST_KEY = "requestKey";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final File directory;
+    private final File temp;
+    private final FileOutputStream fileOut;
+    private final MessageDigest digest;
+    private final OutputStream out;
+    private boolean finished;
+
+    private StoredImageWriter(File directory, boolean hashContent) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create " + directory);
+        }
+        this.directory = directory;
+        // same directory as the final name, so the rename never crosses file systems
+        temp = File.createTempFile("resize", ".part", directory);
+        fileOut = new FileOutputStream(temp);
+        OutputStream stream = new BufferedOutputStream(fileOut, BUFFER_SIZE);
+        if (hashContent) {
+            try {
+                digest = MessageDigest.getInstance("SHA-1");
+            } catch (NoSuchAlgorithmException e) {
+                fileOut.close();
+                temp.delete();
+                throw new IllegalStateException(e);
+            }
+            stream = new DigestOutputStream(stream, digest);
+        } else {
+            digest = null;
+        }
+        out = stream;
+    }
+
+    /**
+     * @param hashContent take a digest of the content, for contentHash()
+     */
+    public static StoredImageWriter open(File directory, boolean hashContent) throws IOException {
+        return new StoredImageWriter(directory, hashContent);
+    }
+
+    public OutputStream stream() {
+        return out;
+    }
+
+    public boolean hashesContent() {
+        return digest != null;
+    }
+
+    /**
+     * Bytes written so far.
+     */
+    public long size() throws IOException {
+        out.flush();
+        return fileOut.getChannel().size();
+    }
+
+    /**
+     * The SHA-1 of everything written so far, may only be called once.
+     */
+    public String contentHash() throws IOException {
+        out.flush();
+        return ResizeResultCache.hex(digest.digest());
+    }
+
+    /**
+     * Moves the complete file to its final name.
+     *
+     * @param deduplicate the name stands for the content, an existing file of
+     *                    that name is kept and the new one dropped
+     * @return the final file
+     */
+    public File commit(String name, boolean deduplicate) throws IOException {
+        File target = new File(directory, name);
+        out.flush();
+        if (deduplicate && target.isFile() && target.length() == fileOut.getChannel().size()) {
+            abort();
+            return target;
+        }
+        // the data has to be on the storage before the name points at it
+        fileOut.getFD().sync();
+        out.close();
+        finished = true;
+        if (!temp.renameTo(target)) {
+            temp.delete();
+            throw new IOException("Could not move the image to " + target);
+        }
+        return target;
+    }
+
+    /**
+     * Drops the temporary file, nothing happens after commit().
+     */
+    public void abort() {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        try {
+            out.close();
+        } catch (IOException ignore) {
+        }
+        temp.delete();
+    }
+}
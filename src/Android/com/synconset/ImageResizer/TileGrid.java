@@ -0,0 +1,106 @@
+package com.synconset;
+
+/**
+ * Splits a source image into square tiles and maps each of them onto a
+ * scaled target. Target edges are rounded from the same source coordinate on
+ * both sides of a seam, so neighbouring tiles always meet exactly; tiles are
+ * read with a small overlap so that filtering at the edges sees the real
+ * neighbouring pixels.
+ */
+class TileGrid {
+    public final int sourceWidth;
+    public final int sourceHeight;
+    public final int targetWidth;
+    public final int targetHeight;
+    public final int tileSize;
+    public final int columns;
+    public final int rows;
+    public final int sampleSize;
+    public final int padding;
+
+    /**
+     * @param tileSize      tile edge length in source pixels
+     * @param maxSampleSize upper limit of the sample size, -1 for none
+     */
+    public TileGrid(int sourceWidth, int sourceHeight, int targetWidth, int targetHeight, int tileSize, int maxSampleSize) {
+        this.sourceWidth = sourceWidth;
+        this.sourceHeight = sourceHeight;
+        this.targetWidth = targetWidth;
+        this.targetHeight = targetHeight;
+        this.tileSize = tileSize;
+        this.columns = (sourceWidth + tileSize - 1) / tileSize;
+        this.rows = (sourceHeight + tileSize - 1) / tileSize;
+        this.sampleSize = sampleSize(sourceWidth, sourceHeight, targetWidth, targetHeight, maxSampleSize);
+        // two sampled pixels on every side are enough for bilinear filtering
+        this.padding = 2 * sampleSize;
+    }
+
+    /**
+     * Largest power of two that keeps the sampled source at least as large
+     * as the target.
+     */
+    public static int sampleSize(int sourceWidth, int sourceHeight, int targetWidth, int targetHeight, int maxSampleSize) {
+        int sampleSize = 1;
+        while (sourceWidth / (sampleSize * 2) >= targetWidth && sourceHeight / (sampleSize * 2) >= targetHeight
+                && (maxSampleSize <= 0 || sampleSize * 2 <= maxSampleSize)) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    /**
+     * Picks the tile size so that one decoded tile per worker fits into the
+     * memory budget.
+     */
+    public static int tileSize(long budgetBytes, int workers, int sampleSize, int maxTileSize) {
+        long bytesPerWorker = budgetBytes / Math.max(1, workers);
+        // ARGB_8888 after sampling, a tile holds (size / sampleSize)^2 pixels
+        int sampledEdge = (int) Math.sqrt(bytesPerWorker / 4.0);
+        int size = sampledEdge * sampleSize;
+        return Math.max(256, Math.min(size, maxTileSize));
+    }
+
+    public int count() {
+        return columns * rows;
+    }
+
+    /**
+     * Source rectangle of a tile including the overlap, as left, top, right, bottom.
+     */
+    public void paddedSource(int tile, int[] out) {
+        int column = tile % columns;
+        int row = tile / columns;
+        out[0] = Math.max(0, column * tileSize - padding);
+        out[1] = Math.max(0, row * tileSize - padding);
+        out[2] = Math.min(sourceWidth, (column + 1) * tileSize + padding);
+        out[3] = Math.min(sourceHeight, (row + 1) * tileSize + padding);
+    }
+
+    /**
+     * Target rectangle a tile covers without its overlap, as left, top, right, bottom.
+     */
+    public void target(int tile, int[] out) {
+        int column = tile % columns;
+        int row = tile / columns;
+        out[0] = targetX(column * tileSize);
+        out[1] = targetY(row * tileSize);
+        out[2] = targetX(Math.min(sourceWidth, (column + 1) * tileSize));
+        out[3] = targetY(Math.min(sourceHeight, (row + 1) * tileSize));
+    }
+
+    public float scaleX() {
+        return (float) targetWidth / sourceWidth;
+    }
+
+    public float scaleY() {
+        return (float) targetHeight / sourceHeight;
+    }
+
+    private int targetX(int sourceX) {
+        return (int) ((long) sourceX * targetWidth / sourceWidth);
+    }
+
+    private int targetY(int sourceY) {
+        return (int) ((long) sourceY * targetHeight / sourceHeight);
+    }
+}
@@ -0,0 +1,201 @@
+package com.synconset;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Resizes images too large to decode at once. The source is cut into a
+ * {@link TileGrid}, tiles are region decoded at the grid's sample size by
+ * several workers, each with a decoder of its own, and drawn scaled into the
+ * target bitmap. Tile and target bitmaps come from the {@link BitmapPool}.
+ */
+class TiledDecoder {
+    private static final String TAG = "TiledDecoder";
+    // Memory for decoded tiles in flight, shared by all workers
+    static final long TILE_MEMORY_BUDGET = 24L * 1024 * 1024;
+    private static final int MAX_TILE_SIZE = 2048;
+
+    private static ExecutorService workers;
+
+    /**
+     * Outcome of a tiled decode.
+     */
+    static class Result {
+        public Bitmap bitmap;
+        public int tiles;
+        public int workers;
+        public int sampleSize;
+        public long elapsedNanos;
+
+        public double tilesPerSecond() {
+            return elapsedNanos > 0 ? tiles * 1e9 / elapsedNanos : 0;
+        }
+    }
+
+    private static synchronized ExecutorService getWorkers() {
+        if (workers == null) {
+            workers = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "ImageResizer-tile-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return workers;
+    }
+
+    /**
+     * Decodes the source scaled to exactly targetWidth x targetHeight
+     * and turned into the given EXIF orientation, which may swap the
+     * dimensions of the result.
+     *
+     * @param maxSampleSize upper limit of the sample size, -1 for none
+     * @param filter        bilinear filtering of the tiles, nearest neighbour if false
+     */
+    public static Result decode(SourceView source, int sourceWidth, int sourceHeight, int targetWidth, int targetHeight, int maxSampleSize, int orientation, final boolean filter) throws IOException {
+        long start = System.nanoTime();
+        int sampleSize = TileGrid.sampleSize(sourceWidth, sourceHeight, targetWidth, targetHeight, maxSampleSize);
+        int workerCount = Runtime.getRuntime().availableProcessors();
+        int tileSize = TileGrid.tileSize(TILE_MEMORY_BUDGET, workerCount, sampleSize, MAX_TILE_SIZE * sampleSize);
+        final TileGrid grid = new TileGrid(sourceWidth, sourceHeight, targetWidth, targetHeight, tileSize, maxSampleSize);
+        workerCount = Math.min(workerCount, grid.count());
+        if (source.isSharedDescriptor()) {
+            workerCount = 1;
+        }
+
+        final BitmapPool pool = BitmapPool.shared();
+        boolean transposed = Orientation.isTransposed(orientation);
+        final Bitmap target = pool.get(transposed ? targetHeight : targetWidth, transposed ? targetWidth : targetHeight, Bitmap.Config.ARGB_8888);
+        final Canvas canvas = new Canvas(target);
+        // tiles are placed in stored coordinates, the canvas turns them as they are drawn
+        canvas.concat(BitmapUtil.getOrientationMatrix(orientation, targetWidth, targetHeight));
+        final AtomicInteger nextTile = new AtomicInteger();
+        List<Future<?>> running = new ArrayList<Future<?>>(workerCount);
+        List<BitmapRegionDecoder> decoders = new ArrayList<BitmapRegionDecoder>(workerCount);
+        try {
+            for (int i = 0; i < workerCount; i++) {
+                // BitmapRegionDecoder serializes its calls, so every worker gets its own
+                final BitmapRegionDecoder decoder = source.newRegionDecoder();
+                decoders.add(decoder);
+                running.add(getWorkers().submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        decodeTiles(decoder, grid, nextTile, canvas, pool, filter);
+                    }
+                }));
+            }
+            for (Future<?> future : running) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            cancel(running, nextTile, grid);
+            pool.put(target);
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while decoding tiles");
+        } catch (ExecutionException e) {
+            cancel(running, nextTile, grid);
+            pool.put(target);
+            Throwable cause = e.getCause();
+            if (cause instanceof OutOfMemoryError) {
+                throw (OutOfMemoryError) cause;
+            }
+            throw new IOException("Could not decode tiles of " + source + ": " + cause);
+        } catch (IOException e) {
+            cancel(running, nextTile, grid);
+            pool.put(target);
+            throw e;
+        } finally {
+            for (BitmapRegionDecoder decoder : decoders) {
+                decoder.recycle();
+            }
+        }
+
+        Result result = new Result();
+        result.bitmap = target;
+        result.tiles = grid.count();
+        result.workers = workerCount;
+        result.sampleSize = grid.sampleSize;
+        result.elapsedNanos = System.nanoTime() - start;
+        Log.d(TAG, result.tiles + " tiles of " + grid.tileSize + "px, sample " + grid.sampleSize + ", "
+                + workerCount + " workers, " + Math.round(result.tilesPerSecond()) + " tiles/s");
+        return result;
+    }
+
+    private static void cancel(List<Future<?>> running, AtomicInteger nextTile, TileGrid grid) {
+        // workers stop picking up tiles once the counter is past the end
+        nextTile.set(grid.count());
+        for (Future<?> future : running) {
+            future.cancel(false);
+        }
+        for (Future<?> future : running) {
+            try {
+                future.get();
+            } catch (Exception ignore) {
+            }
+        }
+    }
+
+    private static void decodeTiles(BitmapRegionDecoder decoder, TileGrid grid, AtomicInteger nextTile, Canvas canvas, BitmapPool pool, boolean filter) {
+        int[] source = new int[4];
+        int[] target = new int[4];
+        Rect region = new Rect();
+        Matrix matrix = new Matrix();
+        Paint paint = filter ? new Paint(Paint.FILTER_BITMAP_FLAG) : null;
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = grid.sampleSize;
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+
+        int tile;
+        while ((tile = nextTile.getAndIncrement()) < grid.count()) {
+            grid.paddedSource(tile, source);
+            grid.target(tile, target);
+            region.set(source[0], source[1], source[2], source[3]);
+            // the block of the previous tile is usually back in the pool by now
+            pool.prepareDecode(options,
+                    (source[2] - source[0] + grid.sampleSize - 1) / grid.sampleSize,
+                    (source[3] - source[1] + grid.sampleSize - 1) / grid.sampleSize);
+            Bitmap block;
+            try {
+                block = decoder.decodeRegion(region, options);
+            } catch (IllegalArgumentException e) {
+                pool.abandonDecode(options);
+                block = decoder.decodeRegion(region, options);
+            }
+            options.inBitmap = null;
+            if (block == null) {
+                throw new BitmapUtil.UnableToDecodeBitmapException(new IOException("Tile " + tile + " could not be decoded"));
+            }
+            // map the padded block onto the target, the clip drops the overlap
+            matrix.setScale((source[2] - source[0]) * grid.scaleX() / block.getWidth(),
+                    (source[3] - source[1]) * grid.scaleY() / block.getHeight());
+            matrix.postTranslate(source[0] * grid.scaleX(), source[1] * grid.scaleY());
+            synchronized (canvas) {
+                canvas.save();
+                canvas.clipRect(target[0], target[1], target[2], target[3]);
+                canvas.drawBitmap(block, matrix, paint);
+                canvas.restore();
+            }
+            pool.put(block);
+        }
+    }
+}
@@ -15,36 +15,54 @@ var ImageResizer = function() {
 
 ImageResizer.IMAGE_DATA_TYPE_BASE64 = "base64Image";
 ImageResizer.IMAGE_DATA_TYPE_URL = "urlImage";
+ImageResizer.IMAGE_DATA_TYPE_ARRAY_BUFFER = "arrayBufferImage";
 ImageResizer.RESIZE_TYPE_FACTOR = "factorResize";
 ImageResizer.RESIZE_TYPE_MIN_PIXEL = "minPixelResize";
 ImageResizer.RESIZE_TYPE_MAX_PIXEL = "maxPixelResize";
+ImageResizer.RESIZE_QUALITY_FAST = "fast";
+ImageResizer.RESIZE_QUALITY_BALANCED = "balanced";
+ImageResizer.RESIZE_QUALITY_HIGH = "high";
+ImageResizer.RESIZE_ENGINE_CANVAS = "canvas";
+ImageResizer.RESIZE_ENGINE_JAVA = "java";
 ImageResizer.FORMAT_JPG = "jpg";
 ImageResizer.FORMAT_PNG = "png";
+ImageResizer.FORMAT_WEBP = "webp";
+ImageResizer.FIT_COVER = "cover";
+ImageResizer.RETURN_TYPE_BASE64 = "base64";
+ImageResizer.RETURN_TYPE_ARRAY_BUFFER = "arraybuffer";
+ImageResizer.NAMING_FILENAME = "filename";
+ImageResizer.NAMING_CONTENT_HASH = "contentHash";
+ImageResizer.NAMING_REQUEST_KEY = "requestKey";
+
+var requestCount = 0;
+
+function nextRequestId() {
+    requestCount += 1;
+    return "resize-" + new Date().getTime() + "-" + requestCount;
+}
+
+function isBinary(imageData) {
+    return typeof ArrayBuffer !== "undefined" && (imageData instanceof ArrayBuffer || ArrayBuffer.isView(imageData));
+}
 
 /**
- * Resize an image
- * @param success - success callback, will receive the data sent from the native plugin
- * @param fail - error callback, will receive an error string describing what went wrong
- * @param imageData - The image data, either base64 or local url
- * @param width - width factor / width in pixels (if one of height/width is 0, will resize to fit to the other while keeping aspect ratio)
- * @param height - height factor / height in pixels
- * @param options extra options -
- *              format : file format to use (ImageResizer.FORMAT_JPG/ImageResizer.FORMAT_PNG) - defaults to JPG
- *              imageDataType : the data type (IMAGE_DATA_TYPE_URL/IMAGE_DATA_TYPE_BASE64) - defaults to URL
- *              resizeType : type of the resize (RESIZE_TYPE_PIXEL/RESIZE_TYPE_FACTOR) - defaults to RESIZE_TYPE_PIXEL
- *              quality : INTEGER, compression quality - defaults to 75
- *              storeImage : store resized image
- *              pixelDensity : adjust image size for pixel density (2x pixels for retina on iOS)
- *              directory : directory relative to temporary directory of the app to store image
- *              filename : filename of stored resized image
- *              photoAlbum : whether to store the image in the photo album (1) or temporary directory of the app (0)
- * @returns JSON Object with the following parameters:
- *              imageData : Base64 of the resized image || OR filename if storeImage = 1
- *              height : height of the resized image
- *              width: width of the resized image
+ * The arguments of an exec call. Binary image data (an ArrayBuffer or a typed array) goes as a second argument,
+ * which cordova hands to the native side as bytes.
  */
-ImageResizer.prototype.resizeImage = function(success, fail, imageData, width, height, options) {
-	var fileFormat, supportedFormats = ['jpg', 'jpeg', 'png'];
+function execArgs(params, imageData) {
+    if (!isBinary(imageData)) {
+        return [params];
+    }
+    delete params.data;
+    params.imageDataType = ImageResizer.IMAGE_DATA_TYPE_ARRAY_BUFFER;
+    if (!(imageData instanceof ArrayBuffer)) {
+        imageData = imageData.buffer.slice(imageData.byteOffset, imageData.byteOffset + imageData.byteLength);
+    }
+    return [params, imageData];
+}
+
+function buildResizeParams(imageData, width, height, options) {
+	var fileFormat, supportedFormats = ['jpg', 'jpeg', 'png', 'webp'];
     if (!options) {
         options = {};
     }
@@ -57,32 +75,265 @@ ImageResizer.prototype.resizeImage = function(success, fail, imageData, width, h
         imageDataType: options.imageType ? options.imageType : ImageResizer.IMAGE_DATA_TYPE_URL,
         resizeType: options.resizeType ? options.resizeType : ImageResizer.RESIZE_TYPE_MAX_PIXEL,
         quality: options.quality ? options.quality : 75,
+        lossless: options.lossless ? true : false,
+        effort: (typeof options.effort !== "undefined") ? options.effort : 75,
+        resizeQuality: options.resizeQuality ? options.resizeQuality : ImageResizer.RESIZE_QUALITY_BALANCED,
+        resizeEngine: options.resizeEngine ? options.resizeEngine : ImageResizer.RESIZE_ENGINE_CANVAS,
+        resizeKernel: options.resizeKernel ? options.resizeKernel : "lanczos3",
         storeImage: (typeof options.storeImage !== "undefined") ? options.storeImage : 0,
         pixelDensity: (typeof options.pixelDensity !== "undefined") ? options.pixelDensity : 1,
         directory: options.directory ? options.directory : "",
         filename: options.filename ? options.filename : "",
-        photoAlbum: (typeof options.photoAlbum !== "undefined") ? options.photoAlbum : 0
+        naming: options.naming ? options.naming : ImageResizer.NAMING_FILENAME,
+        outputDirectory: options.outputDirectory ? options.outputDirectory : "",
+        photoAlbum: (typeof options.photoAlbum !== "undefined") ? options.photoAlbum : 0,
+        cache: options.cache ? true : false,
+        memoryCache: options.memoryCache ? true : false,
+        requestId: options.requestId ? options.requestId : nextRequestId(),
+        priority: options.priority ? options.priority : "",
+        timings: options.timings ? true : false,
+        preview: options.preview ? true : false,
+        computeHash: options.computeHash ? true : false,
+        computePlaceholder: options.computePlaceholder ? true : false,
+        returnType: options.returnType ? options.returnType : ImageResizer.RETURN_TYPE_BASE64
     };
 
+    if (options.sizes) {
+        params.sizes = options.sizes;
+    }
+    if (options.maxBytes) {
+        params.maxBytes = options.maxBytes;
+    }
+    if (options.crop) {
+        params.crop = options.crop;
+    }
+    if (options.fit) {
+        params.fit = options.fit;
+        params.gravity = options.gravity ? options.gravity : "center";
+    }
+
 	if (params.filename && params.filename.indexOf('.') > -1) {
         fileFormat = params.filename.substring(params.filename.lastIndexOf('.') + 1, params.filename.length);
         if (supportedFormats.indexOf(fileFormat.toLowerCase())) {
             params.format = fileFormat.toLowerCase();
         }
     }
-    return cordova.exec(success, fail, "ImageResizePlugin", "resizeImage", [params]);
+    return params;
+}
+
+/**
+ * Resize an image
+ * @param success - success callback, will receive the data sent from the native plugin
+ *              with returnType RETURN_TYPE_ARRAY_BUFFER it receives (arrayBuffer, result)
+ * @param fail - error callback, will receive an error string describing what went wrong
+ * @param imageData - The image data, either base64, local url (file://, content:// or android_asset, Android) or an ArrayBuffer / typed array (Android)
+ * @param width - width factor / width in pixels (if one of height/width is 0, will resize to fit to the other while keeping aspect ratio)
+ * @param height - height factor / height in pixels
+ * @param options extra options -
+ *              format : file format to use (ImageResizer.FORMAT_JPG/ImageResizer.FORMAT_PNG, ImageResizer.FORMAT_WEBP
+ *                      on Android) - defaults to JPG
+ *              imageDataType : the data type (IMAGE_DATA_TYPE_URL/IMAGE_DATA_TYPE_BASE64) - defaults to URL
+ *              resizeType : type of the resize (RESIZE_TYPE_PIXEL/RESIZE_TYPE_FACTOR) - defaults to RESIZE_TYPE_PIXEL
+ *              quality : INTEGER, compression quality - defaults to 75
+ *              lossless : lossless WebP (Android 11+, older versions encode lossy WebP at quality 100) - defaults to false
+ *              effort : INTEGER 0-100, speed against size of lossless WebP, 0 encodes fastest, 100 smallest (Android)
+ *                      - defaults to 75
+ *              maxBytes : byte budget of the encoded image (Android), the highest quality up to quality that fits
+ *                      is searched for, ignored for PNG
+ *              resizeQuality : speed against quality of the scaling (Android), RESIZE_QUALITY_FAST (nearest neighbour,
+ *                      for thumbnails), RESIZE_QUALITY_BALANCED (bilinear) or RESIZE_QUALITY_HIGH (area average,
+ *                      no aliasing) - defaults to RESIZE_QUALITY_BALANCED
+ *              resizeEngine : RESIZE_ENGINE_CANVAS or RESIZE_ENGINE_JAVA, a plain Java resampler that filters with
+ *                      resizeKernel instead of resizeQuality (Android 5+) - defaults to RESIZE_ENGINE_CANVAS
+ *              resizeKernel : "box", "bilinear", "bicubic" or "lanczos3", for RESIZE_ENGINE_JAVA - defaults to "lanczos3"
+ *              storeImage : store resized image
+ *              pixelDensity : adjust image size for pixel density (2x pixels for retina on iOS)
+ *              directory : directory relative to temporary directory of the app to store image
+ *              filename : filename of stored resized image
+ *              naming : how a stored image is named (Android), NAMING_FILENAME (filename, or a unique name if blank),
+ *                      NAMING_CONTENT_HASH (SHA-1 of the encoded image) or NAMING_REQUEST_KEY (hash of the source file
+ *                      and the options), identical images then share one file - defaults to NAMING_FILENAME
+ *              outputDirectory : path or file URL of the directory to store images in (Android) - defaults to the
+ *                      temporary directory
+ *              photoAlbum : whether to store the image in the photo album (1) or temporary directory of the app (0)
+ *              requestId : id to cancel the request with (Android) - defaults to a generated id
+ *              priority : "visible", "prefetch" or "background", queued requests run in this order (Android) - defaults to "visible"
+ *              cache : keep stored results (storeImage = 1) in the plugin's result cache and answer repeated
+ *                      resizes of an unchanged file from it (Android) - defaults to false
+ *              memoryCache : keep a remote image in the memory cache of the plugin's Fresco pipeline after the resize,
+ *                      for images resized again soon (Android) - defaults to false
+ *              timings : add the time spent in each stage to the result (Android) - defaults to false
+ *              crop : {x, y, width, height} in pixels of the image as displayed, only this part is decoded and
+ *                      resized, width, height and resizeType then apply to it (Android)
+ *              fit : FIT_COVER fills width x height exactly with the largest part of the image of that aspect ratio,
+ *                      only that part is decoded (Android)
+ *              gravity : which part FIT_COVER keeps, "center", "top", "bottom", "left", "right" or a corner like
+ *                      "topLeft" (Android) - defaults to "center"
+ *              preview : send a small JPEG preview before the result (Android), the success callback then runs twice,
+ *                      first with {preview: true, imageData, width, height}, or (arrayBuffer, result) for
+ *                      RETURN_TYPE_ARRAY_BUFFER - defaults to false
+ *              computeHash : add a perceptual hash of the resized image to the result (Android) - defaults to false
+ *              computePlaceholder : add the colours of a placeholder to the result (Android) - defaults to false
+ *              sizes : several outputs from one decode (Android), an array of numbers (the box to fit into) or of objects
+ *                      with width, height and other options to override, e.g. [256, 1080, {width: 2048, height: 2048,
+ *                      quality: 90}]. Width and height are ignored then, stored outputs get their size appended to
+ *                      the filename
+ *              returnType : RETURN_TYPE_BASE64 or RETURN_TYPE_ARRAY_BUFFER, the encoded image as an ArrayBuffer instead
+ *                      of a base64 string, for storeImage = 0 (Android) - defaults to RETURN_TYPE_BASE64
+ * @returns JSON Object with the following parameters:
+ *              imageData : Base64 of the resized image || OR filename if storeImage = 1
+ *                      || OR nothing for RETURN_TYPE_ARRAY_BUFFER, the ArrayBuffer is the first callback argument
+ *              format : only for RETURN_TYPE_ARRAY_BUFFER, the format of the encoded image
+ *          || OR with sizes (Android) a JSON Object with images : the above per size, in the order of sizes,
+ *          RETURN_TYPE_ARRAY_BUFFER then passes one ArrayBuffer per size before the result
+ *              height : height of the resized image
+ *              width: width of the resized image
+ *              bytes : size of the encoded image (Android)
+ *              quality, attempts, fitsMaxBytes : only with maxBytes (Android), the quality chosen, the number of
+ *                      full encodes it took and whether the image fits, the smallest one tried is returned if not
+ *              hash : only with computeHash (Android), a 64 bit difference hash as 16 hex digits, images that
+ *                      look alike differ in few bits
+ *              placeholder : only with computePlaceholder (Android), {color, width, height, grid}, the average colour
+ *                      as "#rrggbb" and a grid of width x height cells of "rrggbb" each, row by row
+ *              tiles : only for very large images decoded tile by tile (Android), the number of tiles,
+ *                      workers, sample size and tilesPerSecond
+ *              timings : only with the timings option (Android), milliseconds per stage (queueWait, header, exif,
+ *                      decode, fetch, scale, encode, base64, write, preview) and in total
+ * @return {string} the request id, for cancelResize
+ */
+ImageResizer.prototype.resizeImage = function(success, fail, imageData, width, height, options) {
+    var params = buildResizeParams(imageData, width, height, options);
+    cordova.exec(success, fail, "ImageResizePlugin", "resizeImage", execArgs(params, imageData));
+    return params.requestId;
+};
+
+/**
+ * Resize a list of images with a single call (Android only)
+ * @param success - called once per finished image and once at the end of the batch
+ * @param fail - error callback, will receive an error string describing what went wrong
+ * @param images - array of image data (see resizeImage), an entry may also be an object
+ *              like {data: ..., filename: ...} to override options for that image
+ * @param width - see resizeImage
+ * @param height - see resizeImage
+ * @param options - see resizeImage, except for returnType, additionally:
+ *              parallelism : INTEGER, upper limit of images resized at the same time - defaults to cores / memory
+ *              priority : defaults to "background"
+ *              journal : BOOLEAN, keep the batch in a journal that survives the app being killed, it resumes on the
+ *                      next start without the images already done and reports to reconnectResize, needs
+ *                      storeImage = 1 - defaults to false
+ * @returns JSON Object per image with the following parameters:
+ *              index : position of the image in the images array
+ *              total, completed, failed : batch progress
+ *              result : the same object resizeImage returns || OR error : error string
+ *          and a last JSON Object with done = true, cancelled and the total, completed and failed counts
+ * @return {string} the request id of the batch, for cancelResize and reconnectResize
+ */
+ImageResizer.prototype.resizeImages = function(success, fail, images, width, height, options) {
+    var params = {
+        images: images,
+        options: buildResizeParams(undefined, width, height, options)
+    };
+    delete params.options.data;
+    params.requestId = params.options.requestId;
+    delete params.options.requestId;
+    if (!options || !options.priority) {
+        params.options.priority = "background";
+    }
+    if (options && options.parallelism) {
+        params.options.parallelism = options.parallelism;
+    }
+    if (options && options.journal) {
+        params.journal = true;
+    }
+    cordova.exec(success, fail, "ImageResizePlugin", "resizeImages", [params]);
+    return params.requestId;
+};
+
+/**
+ * List the journaled batches of resizeImages, running or finished and not collected yet (Android only)
+ * @param success success callback, will receive an array of {requestId, done, cancelled, total, completed, failed}
+ * @param fail error callback, will receive an error string describing what went wrong
+ */
+ImageResizer.prototype.getResizeJobs = function(success, fail) {
+    return cordova.exec(success, fail, "ImageResizePlugin", "getResizeJobs", []);
+};
+
+/**
+ * Receive the progress of a journaled batch again, e.g. after the app was restarted (Android only)
+ * @param success called like the success callback of resizeImages, first with {reconnected: true, requestId, total,
+ *              completed, failed, items} where items holds {index, result} or {index, error} per image finished so
+ *              far, then per image and at the end of the batch, the journal is deleted after the last message
+ * @param fail error callback, will receive "unknown request" if there is no such batch
+ * @param requestId the id returned by resizeImages
+ */
+ImageResizer.prototype.reconnectResize = function(success, fail, requestId) {
+    return cordova.exec(success, fail, "ImageResizePlugin", "reconnectResize", [{requestId: requestId}]);
+};
+
+/**
+ * Cancel a request started by resizeImage or resizeImages (Android only)
+ * Queued work is dropped, running work is stopped, the request's own error callback receives "cancelled".
+ * @param success success callback, will receive {requestId, cancelled} where cancelled tells whether
+ *              anything was still pending
+ * @param fail error callback, will receive an error string describing what went wrong
+ * @param requestId the id returned by resizeImage / resizeImages
+ */
+ImageResizer.prototype.cancelResize = function(success, fail, requestId) {
+    return cordova.exec(success, fail, "ImageResizePlugin", "cancelResize", [{requestId: requestId}]);
+};
+
+/**
+ * Get the counters of the bitmap pool (Android only)
+ * @param success success callback, will receive an object with hits, misses, puts, evictions, pooled, bytes and maxBytes
+ * @param fail error callback, will receive an error string describing what went wrong
+ */
+ImageResizer.prototype.getPoolStats = function(success, fail) {
+    return cordova.exec(success, fail, "ImageResizePlugin", "getPoolStats", []);
+};
+
+/**
+ * Get the aggregated request statistics (Android only), collected while enabled through the ImageResizerStats
+ * preference or resetStats
+ * @param success success callback, will receive an object with
+ *              enabled, requests, failures, queued,
+ *              timings : per stage {count, mean, p50, p95, p99, max} in milliseconds,
+ *              bytesIn, bytesOut, peakBitmapBytes : {count, mean, p50, p95, p99, max} in bytes,
+ *              pool : the counters of getPoolStats
+ *              memory : budget, reserved and peakReserved in bytes, admitted, waits, waitMillis,
+ *              fallbacks {rgb565, sampleSize, tiled} and outOfMemory
+ * @param fail error callback, will receive an error string describing what went wrong
+ */
+ImageResizer.prototype.getStats = function(success, fail) {
+    return cordova.exec(success, fail, "ImageResizePlugin", "getStats", []);
+};
+
+/**
+ * Clear the statistics of getStats and getPoolStats (Android only)
+ * @param success success callback
+ * @param fail error callback, will receive an error string describing what went wrong
+ * @param enabled optional, turns collecting statistics on or off
+ */
+ImageResizer.prototype.resetStats = function(success, fail, enabled) {
+    var params = {};
+    if (typeof enabled !== "undefined") {
+        params.enabled = enabled ? true : false;
+    }
+    return cordova.exec(success, fail, "ImageResizePlugin", "resetStats", [params]);
 };
 
 /**
  * Get an image width and height
  * @param success success callback, will receive the data sent from the native plugin
  * @param fail error callback, will receive an error string describing what went wrong
- * @param imageData The image data, either base64 or local url
+ * @param imageData The image data, either base64, local url (file://, content:// or android_asset, Android) or an ArrayBuffer / typed array (Android)
  * @param options extra options -
  *              imageDataType : the data type (IMAGE_DATA_TYPE_URL/IMAGE_DATA_TYPE_BASE64) - defaults to URL
  * @returns JSON Object with the following parameters:
  *              height : height of the image
  *              width: width of the image
+ *              orientedHeight, orientedWidth : size after applying the EXIF orientation (Android)
+ *              orientation : EXIF orientation 1-8 (Android)
+ *              format : jpeg, png, webp or gif, when known (Android)
  */
 ImageResizer.prototype.getImageSize = function(success, fail, imageData, options) {
     if (!options) {
@@ -94,20 +345,24 @@ ImageResizer.prototype.getImageSize = function(success, fail, imageData, options
         imageDataType: options.imageType ? options.imageType : ImageResizer.IMAGE_DATA_TYPE_URL
     };
 
-    return cordova.exec(success, fail, "ImageResizePlugin", "imageSize", [params]);
+    return cordova.exec(success, fail, "ImageResizePlugin", "imageSize", execArgs(params, imageData));
 };
 
 /**
  * Store an image locally
  * @param success success callback, will receive the data sent from the native plugin
  * @param fail error callback, will receive an error string describing what went wrong
- * @param imageData The image data, either base64 or local url
+ * @param imageData The image data, either base64, local url (file://, content:// or android_asset, Android) or an ArrayBuffer / typed array (Android)
  * @param options extra options -
- *              format : file format to use (ImageResizer.FORMAT_JPG/ImageResizer.FORMAT_PNG) - defaults to JPG
+ *              format : file format to use (ImageResizer.FORMAT_JPG/ImageResizer.FORMAT_PNG, ImageResizer.FORMAT_WEBP
+ *                      on Android) - defaults to JPG
  *              imageDataType : the data type (IMAGE_DATA_TYPE_URL/IMAGE_DATA_TYPE_BASE64) - defaults to URL
  *              quality : INTEGER, compression quality - defaults to 75
+ *              lossless, effort : see resizeImage (Android)
  *              directory : directory relative to temporary directory of the app to store image
  *              filename : filename of stored resized image
+ *              naming : see resizeImage (Android)
+ *              outputDirectory : see resizeImage (Android)
  *              photoAlbum : whether to store the image in the photo album (true) or temporary directory of the app (false)
  * @returns JSON Object with the following parameters:
  *              url : URL of the file just stored
@@ -123,11 +378,15 @@ ImageResizer.prototype.storeImage = function(success, fail, imageData, options)
         imageDataType: options.imageType ? options.imageType : ImageResizer.IMAGE_DATA_TYPE_URL,
         filename: options.filename,
         directory: options.directory,
+        naming: options.naming ? options.naming : ImageResizer.NAMING_FILENAME,
+        outputDirectory: options.outputDirectory ? options.outputDirectory : "",
         quality: options.quality ? options.quality : 75,
+        lossless: options.lossless ? true : false,
+        effort: (typeof options.effort !== "undefined") ? options.effort : 75,
         photoAlbum: (typeof options.photoAlbum !== "undefined") ? options.photoAlbum : 1
     };
 
-    return cordova.exec(success, fail, "ImageResizePlugin", "storeImage", [params]);
+    return cordova.exec(success, fail, "ImageResizePlugin", "storeImage", execArgs(params, imageData));
 };
 
 window.ImageResizer = ImageResizer;